@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole distance computation from the three macro-categories on a synthetic category graph in memory,
+ * one source at a time with DialShortestPaths and all together with MultiSourceDistances, and as a baseline
+ * the frontier engine on a Neo4j store of the same graph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceBenchmark {
+    @Param("200000")
+    public int categories;
+
+    private InMemoryCategoryAdjacency graph;
+    private int[] sources;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup(){
+        SyntheticDumps dumps = new SyntheticDumps(categories, 0, 1);
+        System.out.println("largest strongly connected component: " + dumps.largestComponent() + " categories");
+        graph = InMemoryCategoryAdjacency.copyOf(dumps.adjacency());
+        sources = new int[SyntheticDumps.MACRO_CATEGORIES.length];
+        for(int s = 0; s < sources.length; s++)
+            sources[s] = graph.indexOf(SyntheticDumps.MACRO_CATEGORIES[s]);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown(){
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[][] dial(){
+        DialShortestPaths dial = new DialShortestPaths(graph);
+        int[][] columns = new int[sources.length][];
+        for(int s = 0; s < sources.length; s++)
+            columns[s] = dial.run(sources[s]);
+        return columns;
+    }
+
+    @Benchmark
+    public int[][] parallel(){
+        return new MultiSourceDistances(graph, pool).compute(sources);
+    }
+
+    /**
+     * The store of the frontier engine, loaded from the synthetic dumps of the same graph.
+     * The distance properties written by a run are removed before each iteration
+     */
+    @State(Scope.Benchmark)
+    public static class Store {
+        private File folder;
+        private GraphDatabaseService graphDb;
+
+        @Setup
+        public void setup(DistanceBenchmark benchmark) throws IOException{
+            folder = Files.createTempDirectory("distance-benchmark").toFile();
+            new SyntheticDumps(benchmark.categories, 0, 1).write(folder, false);
+            String db = new File(folder, "db").getPath();
+            OfflineImport.run(new File(folder, "category.sql").getPath(), new File(folder, "categorylinks.sql").getPath(), db, 1);
+            graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(db);
+        }
+
+        @Setup(Level.Iteration)
+        public void clearDistances(){
+            int pending = 0;
+            Transaction tx = graphDb.beginTx();
+            try{
+                for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(categoryLbl)){
+                    for(String s:SyntheticDumps.MACRO_CATEGORIES)
+                        n.removeProperty("distance_" + s);
+                    if(++pending == 10000){
+                        tx.success();
+                        tx.close();
+                        tx = graphDb.beginTx();
+                        pending = 0;
+                    }
+                }
+                tx.success();
+            }
+            finally{
+                tx.close();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException{
+            graphDb.shutdown();
+            Files.walk(folder.toPath()).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * A whole run of the frontier engine, with the default batch of 50000 nodes per transaction
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void frontier(Store store) throws IOException{
+        CalculateCategoryDistances.frontierDistances(store.graphDb, SyntheticDumps.MACRO_CATEGORIES, 50000, new File(store.folder, "distances.checkpoint"));
+    }
+}
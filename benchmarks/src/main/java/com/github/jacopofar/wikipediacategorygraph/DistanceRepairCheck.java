@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Applies rounds of random SUBCATEGORY_OF additions and removals to a synthetic category graph, repairing the
+ * distances from the macro-categories with DistanceRepair after each round, and compares them with the ones
+ * computed from scratch with DialShortestPaths. Each round starts from the exact distances of the previous one,
+ * so every wrong distance is reported in the round that produced it. Some added edges go from a category to one of its sub-categories, closing new cycles,
+ * the others join random categories. Exits with status 1 if any distance differs.
+ *
+ * Usage: [--categories=n] [--seed=n] [--rounds=n] [--changes=n]
+ */
+public class DistanceRepairCheck {
+    private static final int SHOWN_DIFFERENCES = 10;
+
+    public static void main(String args[]){
+        CommandLine cl = new CommandLine(args);
+        int categories = cl.intOption("categories", 20000);
+        int seed = cl.intOption("seed", 1);
+        int rounds = cl.intOption("rounds", 20);
+        int changes = cl.intOption("changes", 50);
+        SyntheticDumps dumps = new SyntheticDumps(categories, 0, seed);
+        System.out.println("largest strongly connected component: " + dumps.largestComponent() + " categories");
+        CategoryAdjacency synthetic = dumps.adjacency();
+        String[] names = new String[categories];
+        HashSet<Long> edges = new HashSet<>();
+        for(int c = 0; c < categories; c++){
+            names[c] = synthetic.name(c);
+            int sub = c;
+            synthetic.forEachContainer(c, container -> edges.add(edgeKey(sub, container)));
+        }
+        int[] sources = new int[SyntheticDumps.MACRO_CATEGORIES.length];
+        for(int s = 0; s < sources.length; s++)
+            sources[s] = synthetic.indexOf(SyntheticDumps.MACRO_CATEGORIES[s]);
+
+        InMemoryCategoryAdjacency graph = graph(edges, names);
+        int[][] distances = new int[sources.length][];
+        for(int s = 0; s < sources.length; s++)
+            distances[s] = new DialShortestPaths(graph).run(sources[s]);
+        Random random = new Random(seed);
+        long differences = 0;
+        for(int round = 0; round < rounds; round++){
+            long[] current = sorted(edges);
+            int removals = random.nextInt(changes + 1);
+            int additions = changes - removals;
+            HashSet<Long> removed = new HashSet<>();
+            while(removed.size() < Math.min(removals, current.length))
+                removed.add(current[random.nextInt(current.length)]);
+            edges.removeAll(removed);
+            HashSet<Long> added = new HashSet<>();
+            while(added.size() < additions){
+                long e;
+                if(random.nextBoolean()){
+                    //a sub-category becomes a container of its container, a cycle of two
+                    long existing = current[random.nextInt(current.length)];
+                    e = edgeKey((int) existing, (int) (existing >>> 32));
+                }
+                else
+                    e = edgeKey(random.nextInt(categories), random.nextInt(categories));
+                if((int) (e >>> 32) != (int) e && !edges.contains(e) && !removed.contains(e))
+                    added.add(e);
+            }
+            edges.addAll(added);
+            graph = graph(edges, names);
+            DistanceRepair repair = new DistanceRepair(graph, endpoints(added, 32), endpoints(added, 0), endpoints(removed, 32), endpoints(removed, 0));
+            long changed = 0;
+            long roundDifferences = 0;
+            for(int s = 0; s < sources.length; s++){
+                repair.repair(distances[s], sources[s]);
+                changed += repair.getChangedCount();
+                int[] expected = new DialShortestPaths(graph).run(sources[s]);
+                for(int i = 0; i < expected.length; i++){
+                    if(expected[i] != distances[s][i] && roundDifferences++ < SHOWN_DIFFERENCES)
+                        System.out.println(" " + names[i] + " from " + names[sources[s]] + ": repaired " + distances[s][i] + ", expected " + expected[i]);
+                }
+                //the next round starts from the exact distances, so each difference is counted once
+                distances[s] = expected;
+            }
+            differences += roundDifferences;
+            System.out.println("round " + (round + 1) + ": " + removed.size() + " edges removed and " + added.size() + " added, "
+                    + changed + " distances changed, " + roundDifferences + " wrong");
+        }
+        if(differences > 0){
+            System.err.println(differences + " repaired distances differ from the ones computed from scratch");
+            System.exit(1);
+        }
+        System.out.println("the repaired distances are the same computed from scratch");
+    }
+
+    private static long edgeKey(int sub, int container){
+        return ((long) sub << 32) | (container & 0xffffffffL);
+    }
+
+    private static long[] sorted(HashSet<Long> edges){
+        long[] sorted = new long[edges.size()];
+        int i = 0;
+        for(long e:edges)
+            sorted[i++] = e;
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int[] endpoints(HashSet<Long> edges, int shift){
+        int[] endpoints = new int[edges.size()];
+        int i = 0;
+        for(long e:edges)
+            endpoints[i++] = (int) (e >>> shift);
+        return endpoints;
+    }
+
+    /**
+     * The graph of the given edges, as sub-category and container
+     */
+    private static InMemoryCategoryAdjacency graph(HashSet<Long> edges, String[] names){
+        int n = names.length;
+        long[] sorted = sorted(edges);
+        int[] containerOffsets = new int[n + 1];
+        int[] containedOffsets = new int[n + 1];
+        for(long e:sorted){
+            containerOffsets[(int) (e >>> 32) + 1]++;
+            containedOffsets[(int) e + 1]++;
+        }
+        for(int i = 0; i < n; i++){
+            containerOffsets[i + 1] += containerOffsets[i];
+            containedOffsets[i + 1] += containedOffsets[i];
+        }
+        int[] containers = new int[sorted.length];
+        int[] contained = new int[sorted.length];
+        int[] containedPos = Arrays.copyOf(containedOffsets, n);
+        for(int e = 0; e < sorted.length; e++){
+            containers[e] = (int) sorted[e];
+            contained[containedPos[(int) sorted[e]]++] = (int) (sorted[e] >>> 32);
+        }
+        return new InMemoryCategoryAdjacency(containedOffsets, contained, containerOffsets, containers, names);
+    }
+}
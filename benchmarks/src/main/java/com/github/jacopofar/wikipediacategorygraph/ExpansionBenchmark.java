@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The inner loop of the frontier engine on a Neo4j store loaded from synthetic dumps:
+ * reading the neighbors of the frontier categories and marking them with DistanceLabel.mark().
+ * The marks are rolled back, so every invocation finds the same store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpansionBenchmark {
+    @Param("20000")
+    public int categories;
+
+    @Param("1000")
+    public int frontierSize;
+
+    private File folder;
+    private GraphDatabaseService graphDb;
+    private List<DistanceLabel> frontier;
+
+    @Setup
+    public void setup() throws IOException{
+        folder = Files.createTempDirectory("expansion-benchmark").toFile();
+        new SyntheticDumps(categories, categories * 2, 1).write(folder, false);
+        String db = new File(folder, "db").getPath();
+        OfflineImport.run(new File(folder, "category.sql").getPath(), new File(folder, "categorylinks.sql").getPath(), db, 1);
+        graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(db);
+        frontier = new ArrayList<>();
+        try(Transaction tx = graphDb.beginTx()){
+            //a deterministic sample of categories, all at the same distance
+            int i = 0;
+            int step = Math.max(1, categories / frontierSize);
+            for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(categoryLbl)){
+                if(i++ % step == 0 && frontier.size() < frontierSize)
+                    frontier.add(new DistanceLabel(n, "History", 10));
+            }
+            tx.success();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException{
+        graphDb.shutdown();
+        Files.walk(folder.toPath()).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    @Benchmark
+    public void neighbors(Blackhole bh){
+        try(Transaction tx = graphDb.beginTx()){
+            for(DistanceLabel dl:frontier){
+                for(Node n:dl.getContained())
+                    bh.consume(n);
+                for(Node n:dl.getContainers())
+                    bh.consume(n);
+            }
+            tx.success();
+        }
+    }
+
+    @Benchmark
+    public void expandAndMark(Blackhole bh){
+        try(Transaction tx = graphDb.beginTx()){
+            for(DistanceLabel dl:frontier){
+                for(Node n:dl.getContained())
+                    bh.consume(dl.stepOf(n, 1).mark());
+                for(Node n:dl.getContainers())
+                    bh.consume(dl.stepOf(n, 3).mark());
+            }
+            tx.failure();
+        }
+    }
+}
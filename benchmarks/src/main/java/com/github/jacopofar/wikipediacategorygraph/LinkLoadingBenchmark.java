@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The link phase of the loader without the store: resolving the endpoints of the edges in the
+ * category dictionaries and the article map, and the whole addLink path on a writer doing nothing.
+ * Loading the links needs a loader with only the categories each time, so it's measured in single shots
+ * over a batch of loaders prepared before each iteration
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkLoadingBenchmark {
+    private static final int LOADER_BATCH = 5;
+
+    @Param("200000")
+    public int categories;
+
+    private byte[] categoryDump;
+    private byte[] linkDump;
+    private byte[][] containerNames;
+    private int[] pageIds;
+    private CategoryGraphLoader loaded;
+
+    @Setup
+    public void setup() throws IOException{
+        SyntheticDumps dumps = new SyntheticDumps(categories, categories * 4, 1);
+        categoryDump = dumps.categoriesDump();
+        linkDump = dumps.linksDump();
+        int[] count = new int[1];
+        new SqlValuesTokenizer(ByteBuffer.wrap(linkDump), 0).parse(t -> count[0]++);
+        containerNames = new byte[count[0]][];
+        pageIds = new int[count[0]];
+        count[0] = 0;
+        new SqlValuesTokenizer(ByteBuffer.wrap(linkDump), 0).parse(t -> {
+            containerNames[count[0]] = t.getString(1).getBytes(StandardCharsets.UTF_8);
+            pageIds[count[0]++] = t.getInt(0);
+        });
+        loaded = newLoader();
+        new SqlValuesTokenizer(ByteBuffer.wrap(linkDump), 0).parse(loaded::addLink);
+    }
+
+    private CategoryGraphLoader newLoader() throws IOException{
+        CategoryGraphLoader l = new CategoryGraphLoader(new NullGraphWriter(), 0);
+        new SqlValuesTokenizer(ByteBuffer.wrap(categoryDump), 0).parse(l::addCategory);
+        return l;
+    }
+
+    /**
+     * The loaders with only the categories used by the invocations of an iteration
+     */
+    @State(Scope.Thread)
+    public static class FreshLoaders {
+        private final CategoryGraphLoader[] loaders = new CategoryGraphLoader[LOADER_BATCH];
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void setup(LinkLoadingBenchmark benchmark) throws IOException{
+            for(int i = 0; i < loaders.length; i++)
+                loaders[i] = benchmark.newLoader();
+            next = 0;
+        }
+
+        CategoryGraphLoader next(){
+            CategoryGraphLoader l = loaders[next];
+            loaders[next++] = null;
+            return l;
+        }
+    }
+
+    /**
+     * The lookups of a link: the container by name and the sub-category or article by page ID
+     */
+    @Benchmark
+    public void resolveEndpoints(Blackhole bh){
+        for(int i = 0; i < pageIds.length; i++){
+            byte[] name = containerNames[i];
+            bh.consume(loaded.categoryByName.get(name, 0, name.length));
+            bh.consume(loaded.categoryByID.get(pageIds[i]));
+            bh.consume(loaded.articleNodes.get(pageIds[i]));
+        }
+    }
+
+    /**
+     * Parsing and loading all the links with a loader that has only the categories
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = LOADER_BATCH)
+    @Measurement(iterations = 5, batchSize = LOADER_BATCH)
+    public void loadLinks(FreshLoaders loaders) throws IOException{
+        new SqlValuesTokenizer(ByteBuffer.wrap(linkDump), 0).parse(loaders.next()::addLink);
+    }
+
+    /**
+     * Gives sequential node IDs and discards everything
+     */
+    static class NullGraphWriter implements GraphWriter {
+        private long nodes = 0;
+
+        @Override
+        public long createNode(Label label, int ID, String name){
+            return nodes++;
+        }
+
+        @Override
+        public void createRelationship(long from, long to, RelationshipType type){
+        }
+
+        @Override
+        public void commit(){
+        }
+
+        @Override
+        public void progress(String phase, long offset){
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+}
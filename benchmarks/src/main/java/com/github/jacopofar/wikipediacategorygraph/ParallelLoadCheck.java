@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Loads the same synthetic dumps sequentially and with the parallel link writer, and compares the two graphs:
+ * the nodes, with their ID, labels and properties, and the relationships as (start node, end node, type).
+ * The relationship IDs and their order in the chains are expected to differ and are not compared.
+ * Exits with status 1 if the graphs differ. Both loads run in this process, so the totals printed by the second
+ * one include the counters of the first.
+ *
+ * Usage: workfolder [--categories=n] [--articles=n] [--seed=n] [--link-writers=n] [--link-batch=n]
+ */
+public class ParallelLoadCheck {
+    private static final int SHOWN_DIFFERENCES = 10;
+
+    public static void main(String args[]) throws IOException{
+        CommandLine cl = new CommandLine(args);
+        if(cl.positional().size() != 1){
+            System.err.println("wrong usage, expecting: workfolder [--categories=n] [--articles=n] [--seed=n] [--link-writers=n] [--link-batch=n]");
+            return;
+        }
+        File folder = new File(cl.positional(0));
+        File sequential = new File(folder, "sequential.db");
+        File parallel = new File(folder, "parallel.db");
+        if(sequential.exists() || parallel.exists()){
+            System.err.println(sequential + " and " + parallel + " must not exist, the dumps are loaded in new stores");
+            return;
+        }
+        int categories = cl.intOption("categories", 20000);
+        SyntheticDumps dumps = new SyntheticDumps(categories, cl.intOption("articles", categories * 4), cl.intOption("seed", 1));
+        System.out.println("largest strongly connected component: " + dumps.largestComponent() + " categories");
+        dumps.write(folder, false);
+        String categoryFile = new File(folder, "category.sql").getPath();
+        String linksFile = new File(folder, "categorylinks.sql").getPath();
+
+        CreateCategoryGraph.main(new String[]{categoryFile, linksFile, sequential.getPath(), "--parsers=0"});
+        List<String> parallelArgs = new ArrayList<>();
+        Collections.addAll(parallelArgs, categoryFile, linksFile, parallel.getPath(), "--parsers=0",
+                "--link-writers=" + cl.intOption("link-writers", 4));
+        if(cl.hasOption("link-batch"))
+            parallelArgs.add("--link-batch=" + cl.option("link-batch", ""));
+        CreateCategoryGraph.main(parallelArgs.toArray(new String[0]));
+
+        boolean same = compare("nodes", nodes(sequential), nodes(parallel));
+        same &= compare("relationships", relationships(sequential), relationships(parallel));
+        if(!same){
+            System.err.println("the parallel load differs from the sequential one");
+            System.exit(1);
+        }
+        System.out.println("the parallel load is identical to the sequential one");
+    }
+
+    /**
+     * Each node as its ID followed by its sorted labels and properties
+     */
+    private static List<String> nodes(File store){
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(store.getPath());
+        List<String> nodes = new ArrayList<>();
+        try(Transaction tx = graphDb.beginTx()){
+            for(Node n:GlobalGraphOperations.at(graphDb).getAllNodes()){
+                List<String> labels = new ArrayList<>();
+                for(Label l:n.getLabels())
+                    labels.add(l.name());
+                Collections.sort(labels);
+                TreeMap<String, Object> properties = new TreeMap<>();
+                for(String key:n.getPropertyKeys())
+                    properties.put(key, n.getProperty(key));
+                nodes.add(n.getId() + " " + labels + " " + properties);
+            }
+            tx.success();
+        }
+        finally{
+            graphDb.shutdown();
+        }
+        Collections.sort(nodes);
+        return nodes;
+    }
+
+    /**
+     * Each relationship as start node, end node and type
+     */
+    private static List<String> relationships(File store){
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(store.getPath());
+        List<String> relationships = new ArrayList<>();
+        try(Transaction tx = graphDb.beginTx()){
+            for(Relationship r:GlobalGraphOperations.at(graphDb).getAllRelationships())
+                relationships.add(r.getStartNode().getId() + " " + r.getEndNode().getId() + " " + r.getType().name());
+            tx.success();
+        }
+        finally{
+            graphDb.shutdown();
+        }
+        Collections.sort(relationships);
+        return relationships;
+    }
+
+    /**
+     * Compare two sorted lists as multisets, printing the counts and the first differences
+     * @return true if they are equal
+     */
+    private static boolean compare(String what, List<String> expected, List<String> actual){
+        System.out.println(what + ": " + expected.size() + " in the sequential load, " + actual.size() + " in the parallel one");
+        int i = 0, j = 0, differences = 0;
+        while(i < expected.size() || j < actual.size()){
+            int c = i == expected.size() ? 1 : j == actual.size() ? -1 : expected.get(i).compareTo(actual.get(j));
+            if(c == 0){
+                i++;
+                j++;
+                continue;
+            }
+            if(differences++ < SHOWN_DIFFERENCES)
+                System.out.println(" " + (c < 0 ? "only sequential: " + expected.get(i) : "only parallel: " + actual.get(j)));
+            if(c < 0)
+                i++;
+            else
+                j++;
+        }
+        if(differences > 0)
+            System.out.println(" " + differences + " " + what + " differ");
+        return differences == 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of a synthetic categorylinks dump: tokenizing in memory, decoding the names
+ * and the whole pipeline on a compressed file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param("50000")
+    public int categories;
+
+    private byte[] links;
+    private File compressed;
+
+    @Setup
+    public void setup() throws IOException{
+        SyntheticDumps dumps = new SyntheticDumps(categories, categories * 4, 1);
+        links = dumps.linksDump();
+        File folder = Files.createTempDirectory("parse-benchmark").toFile();
+        dumps.write(folder, true);
+        compressed = new File(folder, "categorylinks.sql.gz");
+    }
+
+    @TearDown
+    public void tearDown(){
+        File folder = compressed.getParentFile();
+        for(File f:folder.listFiles())
+            f.delete();
+        folder.delete();
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole bh) throws IOException{
+        new SqlValuesTokenizer(ByteBuffer.wrap(links), 0).parse(t -> bh.consume(t.getInt(0)));
+    }
+
+    @Benchmark
+    public void tokenizeAndDecode(Blackhole bh) throws IOException{
+        new SqlValuesTokenizer(ByteBuffer.wrap(links), 0).parse(t -> bh.consume(t.getString(1)));
+    }
+
+    @Benchmark
+    public void pipelineCompressed(Blackhole bh) throws IOException{
+        new DumpPipeline(Math.max(1, Runtime.getRuntime().availableProcessors() - 2)).run(compressed.getPath(), null, t -> bh.consume(t.getInt(0)));
+    }
+
+    @Benchmark
+    public void sequentialCompressed(Blackhole bh) throws IOException{
+        SqlValuesTokenizer.parse(compressed.getPath(), t -> bh.consume(t.getInt(0)));
+    }
+}
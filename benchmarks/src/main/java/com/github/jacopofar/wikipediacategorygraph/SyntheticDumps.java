@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Deterministic generator of category.sql and categorylinks.sql dumps shaped like the Wikipedia ones,
+ * the same seed and scale give always the same bytes.
+ *
+ * The first categories are the macro-categories History, Geography and People. Every other category has
+ * one to three containers chosen among the previous ones with preferential attachment, so few categories
+ * have most of the sub-categories, and a small fraction of them becomes also a container of one of its own
+ * ancestors, up to four levels above, which closes a cycle through it: the cycles share the big categories,
+ * so they merge in a large strongly connected component, as in the real graph. Articles are in one or more categories, skewed toward the oldest
+ * (bigger) ones. Some names contain quotes, backslashes, commas, parentheses and non ASCII characters,
+ * some categories are maintenance ones and some links are of files, as in the real dumps.
+ * The links are sorted by page ID like in the real dump, sub-categories first.
+ *
+ * Usage: outputfolder [--categories=n] [--articles=n] [--seed=n] [--tuples=n] [--gzip]
+ */
+public class SyntheticDumps {
+    public static final String[] MACRO_CATEGORIES = {"History", "Geography", "People"};
+    private static final double CYCLE_RATE = 0.01;
+    private static final int CYCLE_LEVELS = 4;
+    private static final int MAINTENANCE_EVERY = 53;
+    private static final int FILE_EVERY = 101;
+
+    private final int categories;
+    private final int articles;
+    private final long seed;
+    private final int tuplesPerStatement;
+    private final String[] names;
+    //containers of each category, as category numbers
+    private final int[][] containers;
+
+    public SyntheticDumps(int categories, int articles, long seed){
+        this(categories, articles, seed, 1000);
+    }
+
+    public SyntheticDumps(int categories, int articles, long seed, int tuplesPerStatement){
+        if(categories < MACRO_CATEGORIES.length)
+            throw new IllegalArgumentException("at least " + MACRO_CATEGORIES.length + " categories are needed");
+        this.categories = categories;
+        this.articles = articles;
+        this.seed = seed;
+        this.tuplesPerStatement = tuplesPerStatement;
+        this.names = new String[categories];
+        this.containers = new int[categories][];
+        Random random = new Random(seed);
+        //every container is added to the pool once per sub-category, so it's chosen again with a higher probability
+        int[] pool = new int[categories * 4];
+        int poolSize = 0;
+        for(int c = 0; c < categories; c++){
+            names[c] = categoryName(c);
+            if(c < MACRO_CATEGORIES.length){
+                containers[c] = new int[0];
+                pool[poolSize++] = c;
+                continue;
+            }
+            int count = 1 + (random.nextDouble() < 0.4 ? 1 : 0) + (random.nextDouble() < 0.15 ? 1 : 0);
+            int[] parents = new int[count + 1];
+            int n = 0;
+            for(int i = 0; i < count; i++){
+                int p = pool[random.nextInt(poolSize)];
+                if(!contains(parents, n, p))
+                    parents[n++] = p;
+            }
+            containers[c] = Arrays.copyOf(parents, n);
+            if(random.nextDouble() < CYCLE_RATE){
+                //walk up to an ancestor below the macro-categories, which stay roots, and make c contain it
+                int a = parents[random.nextInt(n)];
+                for(int level = random.nextInt(CYCLE_LEVELS); level > 0 && containers[a].length > 0; level--){
+                    int up = containers[a][random.nextInt(containers[a].length)];
+                    if(up < MACRO_CATEGORIES.length)
+                        break;
+                    a = up;
+                }
+                if(a >= MACRO_CATEGORIES.length && !contains(containers[a], containers[a].length, c)){
+                    containers[a] = Arrays.copyOf(containers[a], containers[a].length + 1);
+                    containers[a][containers[a].length - 1] = c;
+                }
+            }
+            for(int i = 0; i < n && poolSize < pool.length; i++){
+                if(parents[i] < c)
+                    pool[poolSize++] = parents[i];
+            }
+            if(poolSize < pool.length)
+                pool[poolSize++] = c;
+        }
+    }
+
+    private static boolean contains(int[] a, int n, int v){
+        for(int i = 0; i < n; i++){
+            if(a[i] == v)
+                return true;
+        }
+        return false;
+    }
+
+    private static String categoryName(int c){
+        if(c < MACRO_CATEGORIES.length)
+            return MACRO_CATEGORIES[c];
+        if(c % MAINTENANCE_EVERY == 0)
+            return "Wikipedia_articles_needing_cleanup_" + c;
+        switch(c % 97){
+            case 1: return "O'Brien_family_(" + c + ")";
+            case 2: return "Cafés_in_São_Paulo_" + c;
+            case 3: return "Back\\slash,_comma_" + c;
+            case 4: return "日本の歴史_" + c;
+            default: return "Category_" + Integer.toString(c, 36) + "_" + c;
+        }
+    }
+
+    private static String articleName(int a){
+        if(a % 89 == 1)
+            return "Rock_'n'_roll_(" + a + ")";
+        return "Article_" + a;
+    }
+
+    public int categoryCount(){
+        return categories;
+    }
+
+    public int articleCount(){
+        return articles;
+    }
+
+    /**
+     * The page ID of a category, which is also its cat_id
+     */
+    public int categoryPageId(int c){
+        return c + 1;
+    }
+
+    public int articlePageId(int a){
+        return categories + 1 + a;
+    }
+
+
+    /**
+     * The size of the largest strongly connected component of the category graph
+     * @throws IllegalStateException if the graph has no cycles although it's big enough to have them
+     */
+    public int largestComponent(){
+        int largest = CategoryCondensation.of(adjacency()).largestComponent();
+        if(largest < 2 && categories * CYCLE_RATE >= 10)
+            throw new IllegalStateException("the synthetic graph of " + categories + " categories has no cycles");
+        return largest;
+    }
+
+    /**
+     * The category graph, including the maintenance categories which the loader skips
+     */
+    public CategoryAdjacency adjacency(){
+        int[] containedCount = new int[categories];
+        for(int[] cs:containers){
+            for(int p:cs)
+                containedCount[p]++;
+        }
+        int[][] contained = new int[categories][];
+        for(int c = 0; c < categories; c++)
+            contained[c] = new int[containedCount[c]];
+        Arrays.fill(containedCount, 0);
+        for(int c = 0; c < categories; c++){
+            for(int p:containers[c])
+                contained[p][containedCount[p]++] = c;
+        }
+        HashMap<String,Integer> index = new HashMap<>();
+        for(int c = 0; c < categories; c++)
+            index.put(names[c], c);
+        return new CategoryAdjacency() {
+            @Override
+            public int nodeCount(){
+                return categories;
+            }
+
+            @Override
+            public int indexOf(String name){
+                Integer c = index.get(name);
+                return c == null ? -1 : c;
+            }
+
+            @Override
+            public String name(int node){
+                return names[node];
+            }
+
+            @Override
+            public void forEachContained(int node, IntConsumer consumer){
+                for(int c:contained[node])
+                    consumer.accept(c);
+            }
+
+            @Override
+            public void forEachContainer(int node, IntConsumer consumer){
+                for(int c:containers[node])
+                    consumer.accept(c);
+            }
+        };
+    }
+
+    /**
+     * Write the two dumps in the folder, compressed if gzip is true
+     */
+    public void write(File folder, boolean gzip) throws IOException{
+        folder.mkdirs();
+        String suffix = gzip ? ".sql.gz" : ".sql";
+        try(OutputStream out = open(new File(folder, "category" + suffix), gzip)){
+            writeCategories(out);
+        }
+        try(OutputStream out = open(new File(folder, "categorylinks" + suffix), gzip)){
+            writeLinks(out);
+        }
+    }
+
+    private static OutputStream open(File file, boolean gzip) throws IOException{
+        OutputStream out = new FileOutputStream(file);
+        if(gzip)
+            out = new GZIPOutputStream(out, 1 << 16);
+        return new BufferedOutputStream(out, 1 << 20);
+    }
+
+    public byte[] categoriesDump(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try{
+            writeCategories(out);
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public byte[] linksDump(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try{
+            writeLinks(out);
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public void writeCategories(OutputStream out) throws IOException{
+        Statements s = new Statements(out, "category");
+        for(int c = 0; c < categories; c++)
+            s.tuple("(" + categoryPageId(c) + ",'" + escape(names[c]) + "',0,0,0)");
+        s.close();
+    }
+
+    public void writeLinks(OutputStream out) throws IOException{
+        Statements s = new Statements(out, "categorylinks");
+        for(int c = 0; c < categories; c++){
+            for(int p:containers[c])
+                s.tuple(link(categoryPageId(c), names[p], names[c], "subcat"));
+        }
+        //the article links are generated while writing, so they don't need to fit in memory
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        int[] chosen = new int[16];
+        for(int a = 0; a < articles; a++){
+            int count = 1;
+            while(count < chosen.length && random.nextDouble() < 0.5)
+                count++;
+            int n = 0;
+            for(int i = 0; i < count; i++){
+                //the cube of a uniform variable favors the first categories
+                double u = random.nextDouble();
+                int c = (int) (categories * u * u * u);
+                if(!contains(chosen, n, c))
+                    chosen[n++] = c;
+            }
+            for(int i = 0; i < n; i++)
+                s.tuple(link(articlePageId(a), names[chosen[i]], articleName(a), "page"));
+            if(a % FILE_EVERY == 0)
+                s.tuple(link(categories + articles + 1 + a, names[chosen[0]], "File_" + a, "file"));
+        }
+        s.close();
+    }
+
+    private static String link(int from, String to, String sortKey, String type){
+        return "(" + from + ",'" + escape(to) + "','" + escape(sortKey.toUpperCase()) + "','2014-01-01 00:00:00','','uppercase','" + type + "')";
+    }
+
+    private static String escape(String s){
+        return s.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    /**
+     * Writes the tuples as extended INSERT statements, between a header and a footer like mysqldump
+     */
+    private class Statements {
+        private final OutputStream out;
+        private final String table;
+        private int inStatement = 0;
+
+        Statements(OutputStream out, String table) throws IOException{
+            this.out = out;
+            this.table = table;
+            write("-- MySQL dump of a synthetic " + table + " table, seed " + seed + "\n");
+            write("DROP TABLE IF EXISTS `" + table + "`;\n");
+            write("CREATE TABLE `" + table + "` (\n  `id` int(10) unsigned NOT NULL\n) ENGINE=InnoDB DEFAULT CHARSET=binary;\n");
+            write("LOCK TABLES `" + table + "` WRITE;\n");
+        }
+
+        void tuple(String tuple) throws IOException{
+            write(inStatement == 0 ? "INSERT INTO `" + table + "` VALUES " : ",");
+            write(tuple);
+            if(++inStatement == tuplesPerStatement){
+                write(";\n");
+                inStatement = 0;
+            }
+        }
+
+        void close() throws IOException{
+            if(inStatement > 0)
+                write(";\n");
+            write("UNLOCK TABLES;\n");
+            out.flush();
+        }
+
+        private void write(String s) throws IOException{
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public static void main(String args[]) throws IOException{
+        CommandLine cl = new CommandLine(args);
+        if(cl.positional().size() != 1){
+            System.err.println("wrong usage, expecting: outputfolder [--categories=n] [--articles=n] [--seed=n] [--tuples=n] [--gzip]");
+            return;
+        }
+        int categories = cl.intOption("categories", 100000);
+        SyntheticDumps dumps = new SyntheticDumps(categories, cl.intOption("articles", categories * 4), cl.intOption("seed", 1), cl.intOption("tuples", 1000));
+        long startTime = System.currentTimeMillis();
+        dumps.write(new File(cl.positional(0)), cl.hasOption("gzip"));
+        System.out.println("Dumps of " + dumps.categoryCount() + " categories and " + dumps.articleCount() + " articles written in " + (System.currentTimeMillis() - startTime) / 1000 + "s, "
+                + "the largest strongly connected component has " + dumps.largestComponent() + " categories");
+    }
+}
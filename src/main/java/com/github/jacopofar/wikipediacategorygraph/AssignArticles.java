@@ -0,0 +1,445 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.inCategoryRel;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Assigns each article to the nearest macro-category, the third step of the process.
+ * The distance of an article from a macro-category is the minimum distance of the categories containing it,
+ * and the article is assigned to the macro-category with the lowest distance, which is the score of the assignment.
+ *
+ * The articles are split in partitions of consecutive article numbers, computed by a pool of threads
+ * and written in order, with at most two partitions per thread in memory at the same time.
+ * The articles and the category distances are read either from the Neo4j store, where the distances can be
+ * in the distance_ properties or packed in a distances array, or from a snapshot and a binary distance table.
+ *
+ * Usage: outputfile (--db=graphfolder [--sources="Cat1|Cat2|..."] | --snapshot=file --distances=tablefile)
+ *        [--threads=n] [--partition=n]
+ * The output is a CSV file with page ID, name, assigned macro-category, score and the distance vector,
+ * or a binary DistanceTable of the articles if the name doesn't end with .csv. The binary table keeps only the
+ * name and the distance vector: the assignment and the score are not stored, they are given by
+ * DistanceLookup.Entry.nearest() and score(), which choose the macro-category with the same rule as best()
+ */
+public class AssignArticles {
+    public static void main(String args[]) throws IOException{
+        CommandLine cl=new CommandLine(args);
+        if(cl.positional().size()!=1 || !(cl.hasOption("db") || (cl.hasOption("snapshot") && cl.hasOption("distances")))){
+            System.err.println("wrong usage, expecting: outputfile (--db=graphfolder [--sources=Cat1|Cat2] | --snapshot=file --distances=tablefile) [--threads=n] [--partition=n]");
+            return;
+        }
+        int threads=cl.intOption("threads", Runtime.getRuntime().availableProcessors());
+        int partition=cl.intOption("partition", 10000);
+        long startTime=System.currentTimeMillis();
+        if(cl.hasOption("db")){
+            GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(cl.option("db", null));
+            try{
+                String sources=cl.option("sources", null);
+                ArticleSource source=new Neo4jArticleSource(graphDb, sources==null ? null : sources.split("\\|"));
+                assign(source, cl.positional(0), threads, partition);
+            }
+            finally{
+                graphDb.shutdown();
+            }
+        }
+        else{
+            ArticleSource source=new SnapshotArticleSource(CategoryGraphSnapshot.open(cl.option("snapshot", null)), DistanceTableFile.open(cl.option("distances", null)));
+            assign(source, cl.positional(0), threads, partition);
+        }
+        System.out.println("Articles assigned in "+(System.currentTimeMillis()-startTime)/1000+"s");
+    }
+
+    /**
+     * Compute the assignment of every article of the source and write it in the output file
+     */
+    public static void assign(ArticleSource source, String output, int threads, int partitionSize) throws IOException{
+        String[] sources=source.sources();
+        int articles=source.articleCount();
+        System.out.println("Assigning "+articles+" articles to "+sources.length+" macro-categories on "+threads+" threads");
+        ExecutorService pool=Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Partition>> pending=new ArrayDeque<>();
+        long[] assigned=new long[sources.length];
+        long unassigned=0;
+        long lastTime=System.currentTimeMillis();
+        try(RowWriter out=output.endsWith(".csv") ? new CsvRowWriter(output, sources) : new BinaryRowWriter(output, sources, articles)){
+            int next=0;
+            int written=0;
+            while(written<articles){
+                //keep at most two partitions per thread in flight, so the memory is bounded
+                while(next<articles && pending.size()<threads*2){
+                    int from=next;
+                    int to=(int) Math.min(articles, (long) next+partitionSize);
+                    pending.add(pool.submit(()->{
+                        Partition p=new Partition(source, from, to);
+                        source.visit(from, to, p);
+                        return p;
+                    }));
+                    next=to;
+                }
+                Partition p=pending.poll().get();
+                for(int i=0;i<p.size();i++){
+                    int best=p.best(i);
+                    if(best<0)
+                        unassigned++;
+                    else
+                        assigned[best]++;
+                    out.write(p, i, best);
+                }
+                written+=p.size();
+                if(written/100000!=(written-p.size())/100000)
+                    System.out.println(" - assigned "+written+" articles, "+written*1000L/Math.max(1, System.currentTimeMillis()-lastTime)+" articles/s");
+            }
+        }
+        catch(InterruptedException | ExecutionException e){
+            throw new IOException("article assignment failed", e);
+        }
+        finally{
+            pool.shutdownNow();
+        }
+        for(int s=0;s<sources.length;s++)
+            System.out.println(sources[s]+": "+assigned[s]+" articles");
+        System.out.println(unassigned+" articles not reachable from any macro-category");
+    }
+
+    /**
+     * The articles and the distances of their categories
+     */
+    public interface ArticleSource {
+        String[] sources();
+
+        int articleCount();
+
+        /**
+         * Return the distance of a category from a source, DialShortestPaths.UNREACHABLE if not reachable
+         */
+        int distance(int category, int source);
+
+        /**
+         * Pass to the visitor the articles from the from-th included to the to-th excluded, each one followed by its categories.
+         * Called by many threads at the same time
+         */
+        void visit(int from, int to, ArticleVisitor visitor);
+    }
+
+    /**
+     * Receives an article and then, through accept(), the categories containing it
+     */
+    public interface ArticleVisitor extends IntConsumer {
+        void article(int pageId, String name);
+    }
+
+    /**
+     * The distance vectors of a range of articles, filled by a single thread
+     */
+    static class Partition implements ArticleVisitor {
+        private final ArticleSource source;
+        private final int sources;
+        final int[] distances;
+        final int[] pageIds;
+        final String[] names;
+        private int current=-1;
+
+        Partition(ArticleSource source, int from, int to){
+            this.source=source;
+            this.sources=source.sources().length;
+            this.distances=new int[(to-from)*sources];
+            this.pageIds=new int[to-from];
+            this.names=new String[to-from];
+            Arrays.fill(distances, DialShortestPaths.UNREACHABLE);
+        }
+
+        @Override
+        public void article(int pageId, String name){
+            current++;
+            pageIds[current]=pageId;
+            names[current]=name;
+        }
+
+        @Override
+        public void accept(int category){
+            int base=current*sources;
+            for(int s=0;s<sources;s++){
+                int d=source.distance(category, s);
+                if(d<distances[base+s])
+                    distances[base+s]=d;
+            }
+        }
+
+        int size(){
+            return names.length;
+        }
+
+        /**
+         * Return the source nearest to the i-th article, the first one in case of ties, or -1 if none is reachable
+         */
+        int best(int i){
+            int best=-1;
+            int base=i*sources;
+            for(int s=0;s<sources;s++){
+                if(distances[base+s]!=DialShortestPaths.UNREACHABLE && (best<0 || distances[base+s]<distances[base+best]))
+                    best=s;
+            }
+            return best;
+        }
+    }
+
+    private interface RowWriter extends AutoCloseable {
+        void write(Partition p, int i, int best) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static class CsvRowWriter implements RowWriter {
+        private final Writer out;
+        private final String[] sources;
+
+        CsvRowWriter(String file, String[] sources) throws IOException{
+            this.sources=sources;
+            out=new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1<<20);
+            out.write("ID,name,macro_category,score");
+            for(String s:sources)
+                out.append(',').append(DistanceTable.csvField(s));
+            out.write('\n');
+        }
+
+        @Override
+        public void write(Partition p, int i, int best) throws IOException{
+            out.write(Integer.toString(p.pageIds[i]));
+            out.write(',');
+            out.write(DistanceTable.csvField(p.names[i]));
+            out.write(',');
+            if(best>=0){
+                out.write(DistanceTable.csvField(sources[best]));
+                out.write(',');
+                out.write(Integer.toString(p.distances[i*sources.length+best]));
+            }
+            else
+                out.write(',');
+            for(int s=0;s<sources.length;s++){
+                out.write(',');
+                int d=p.distances[i*sources.length+s];
+                if(d!=DialShortestPaths.UNREACHABLE)
+                    out.write(Integer.toString(d));
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException{
+            out.close();
+        }
+    }
+
+    private static class BinaryRowWriter implements RowWriter {
+        private final DistanceTable.BinaryWriter out;
+        private final int sources;
+
+        BinaryRowWriter(String file, String[] sources, int rows) throws IOException{
+            this.out=new DistanceTable.BinaryWriter(file, sources, rows);
+            this.sources=sources.length;
+        }
+
+        @Override
+        public void write(Partition p, int i, int best) throws IOException{
+            out.add(p.names[i], p.distances, i*sources);
+        }
+
+        @Override
+        public void close() throws IOException{
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the articles from the Neo4j store, each partition in its own read transaction
+     */
+    static class Neo4jArticleSource implements ArticleSource {
+        private final GraphDatabaseService graphDb;
+        private final Neo4jCategoryAdjacency categories;
+        private final String[] sources;
+        private final int[] distances;
+        private final long[] articles;
+
+        /**
+         * @param sources the macro-categories to read from the distance_ properties, or null to read the packed distances
+         */
+        Neo4jArticleSource(GraphDatabaseService graphDb, String[] sources){
+            this.graphDb=graphDb;
+            try ( Transaction tx = graphDb.beginTx()){
+                categories=new Neo4jCategoryAdjacency(graphDb);
+                boolean packed=sources==null;
+                if(packed){
+                    Node sourcesNode=null;
+                    for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(CalculateCategoryDistances.distanceSourcesLbl))
+                        sourcesNode=n;
+                    if(sourcesNode==null)
+                        throw new IllegalStateException("no packed distances in the store, the macro-categories must be given with --sources");
+                    sources=(String[]) sourcesNode.getProperty("sources");
+                }
+                this.sources=sources;
+                String[] properties=new String[sources.length];
+                for(int s=0;s<sources.length;s++)
+                    properties[s]="distance_"+sources[s];
+                distances=new int[categories.nodeCount()*sources.length];
+                for(int c=0;c<categories.nodeCount();c++){
+                    Node n=graphDb.getNodeById(categories.nodeId(c));
+                    int[] vector=packed ? (int[]) n.getProperty("distances", null) : null;
+                    for(int s=0;s<sources.length;s++){
+                        int d;
+                        if(packed)
+                            d=vector==null || vector[s]<0 ? DialShortestPaths.UNREACHABLE : vector[s];
+                        else
+                            d=(int) n.getProperty(properties[s], DialShortestPaths.UNREACHABLE);
+                        distances[c*sources.length+s]=d;
+                    }
+                }
+                long[] ids=new long[1<<16];
+                int count=0;
+                for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(articleLbl)){
+                    if(count==ids.length)
+                        ids=Arrays.copyOf(ids, count*2);
+                    ids[count++]=n.getId();
+                }
+                articles=Arrays.copyOf(ids, count);
+                tx.success();
+            }
+        }
+
+        @Override
+        public String[] sources(){
+            return sources;
+        }
+
+        @Override
+        public int articleCount(){
+            return articles.length;
+        }
+
+        @Override
+        public int distance(int category, int source){
+            return distances[category*sources.length+source];
+        }
+
+        @Override
+        public void visit(int from, int to, ArticleVisitor visitor){
+            try ( Transaction tx = graphDb.beginTx()){
+                for(int a=from;a<to;a++){
+                    Node n=graphDb.getNodeById(articles[a]);
+                    visitor.article((int) n.getProperty("ID"), (String) n.getProperty("name"));
+                    for(Relationship r:n.getRelationships(Direction.OUTGOING, inCategoryRel)){
+                        int c=categories.indexOfNode(r.getEndNode().getId());
+                        if(c>=0)
+                            visitor.accept(c);
+                    }
+                }
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * Reads the articles from a snapshot and the category distances from a binary distance table
+     */
+    static class SnapshotArticleSource implements ArticleSource {
+        private final CategoryGraphSnapshot snapshot;
+        private final DistanceTableFile table;
+        private final String[] sources;
+        //the table row of each snapshot category, null if they are the same
+        private final int[] rows;
+
+        SnapshotArticleSource(CategoryGraphSnapshot snapshot, DistanceTableFile table){
+            this.snapshot=snapshot;
+            this.table=table;
+            this.sources=table.getSources();
+            this.rows=aligned(snapshot, table) ? null : mapRows(snapshot, table);
+        }
+
+        /**
+         * Tells whether the table has a row for each snapshot category in the same order,
+         * as when the distances were computed on the snapshot
+         */
+        private static boolean aligned(CategoryGraphSnapshot snapshot, DistanceTableFile table){
+            if(snapshot.nodeCount()!=table.rowCount())
+                return false;
+            for(int c=0;c<snapshot.nodeCount();c++){
+                if(!snapshot.name(c).equals(table.name(c)))
+                    return false;
+            }
+            return true;
+        }
+
+        private static int[] mapRows(CategoryGraphSnapshot snapshot, DistanceTableFile table){
+            System.out.println("The distance table rows don't match the snapshot categories, matching them by name...");
+            int[] rows=new int[snapshot.nodeCount()];
+            Arrays.fill(rows, -1);
+            for(int r=0;r<table.rowCount();r++){
+                int c=snapshot.indexOf(table.name(r));
+                if(c>=0)
+                    rows[c]=r;
+            }
+            return rows;
+        }
+
+        @Override
+        public String[] sources(){
+            return sources;
+        }
+
+        @Override
+        public int articleCount(){
+            return snapshot.articleCount();
+        }
+
+        @Override
+        public int distance(int category, int source){
+            int row=rows==null ? category : rows[category];
+            if(row<0)
+                return DialShortestPaths.UNREACHABLE;
+            int d=table.distance(row, source);
+            return d<0 ? DialShortestPaths.UNREACHABLE : d;
+        }
+
+        @Override
+        public void visit(int from, int to, ArticleVisitor visitor){
+            for(int a=from;a<to;a++){
+                visitor.article(snapshot.articlePageId(a), snapshot.articleName(a));
+                snapshot.forEachArticleCategory(a, visitor);
+            }
+        }
+    }
+}
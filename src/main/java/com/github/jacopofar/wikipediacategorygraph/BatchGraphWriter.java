@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+/**
+ * Writes the graph directly in the store files through a BatchInserter, there are no transactions.
+ * The inserter is not shut down when closing the writer
+ */
+class BatchGraphWriter implements GraphWriter {
+    private final BatchInserter inserter;
+    private final Map<String,Object> properties = new HashMap<>();
+
+    BatchGraphWriter(BatchInserter inserter){
+        this.inserter = inserter;
+    }
+
+    @Override
+    public long createNode(Label label, int ID, String name){
+        properties.clear();
+        properties.put("name", name);
+        properties.put("ID", ID);
+        return inserter.createNode(properties, label);
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type){
+        inserter.createRelationship(from, to, type, null);
+    }
+
+    @Override
+    public void commit(){
+    }
+
+    @Override
+    public void close(){
+    }
+
+    @Override
+    public void progress(String phase, long offset){
+        //an interrupted batch import can't be resumed
+    }
+}
@@ -16,52 +16,229 @@
 package com.github.jacopofar.wikipediacategorygraph;
 
 import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 /**
  * Calculate the distances of each category from the chosen ones, with these criteria:
  * 1. a step from a category to a sub-category costs 1
  * 2. a step from a category to a container category costs 3
  * 3. the distance between two categories is the path with the lower cost possible between them
+ * 
+ * Usage: graphfolder "Cat1|Cat2|..." [--engine=frontier|dial|parallel|nearest] [--threads=n] [--snapshot=file] [--k=n] [--max-distance=d]
+ *        [--write=properties|packed|none] [--output=file] [--batch=n] [--condense] [--metrics-log=file] [--metrics-interval=seconds]
+ * The frontier engine is the original level synchronous relaxation, resumed from the last completed iteration
+ * if a previous run crashed, the dial engine uses DialShortestPaths
+ * and the parallel one computes all the sources at the same time with MultiSourceDistances.
+ * The nearest engine keeps only the k nearest sources of each category within max-distance, using NearestSources,
+ * the others are left unreachable; by default all the sources without a distance limit.
+ * The dial, parallel and nearest engines can read the graph from a snapshot written by ExportCategorySnapshot,
+ * they keep the distances in memory and write them at the end, in transactions of batch nodes:
+ * as a distance_ property per macro-category, as a single distances array per node (packed) or not at all.
+ * They can also write the distances in a DistanceTable file, binary or CSV if the name ends with .csv.
+ * With a snapshot and --write=none Neo4j is not started at all.
+ * With --condense the in-memory engines first report the strongly connected components of SUBCATEGORY_OF,
+ * found with CategoryCondensation; the distances are computed on the full graph as without it.
+ * A run storing the distances records in a DistanceRun node whether they are complete, that is not limited by
+ * the nearest engine, and the snapshot and table files of the run, which UpdateCategoryGraph can't update.
  */
 public class CalculateCategoryDistances {
-    public static void main(String args[]){
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(args[0]);
-        
+    public final static Label distanceSourcesLbl = DynamicLabel.label( "DistanceSources" );
+    public final static Label distanceRunLbl = DynamicLabel.label( "DistanceRun" );
+    private static final int FRONTIER_CHECKPOINT_MAGIC = 0x57434643;
+    private static final Metrics metrics = Metrics.global();
+    private static final Metrics.Histogram commitLatency = metrics.histogram("distances.commit");
+    public static void main(String args[]) throws IOException{
+        CommandLine cl=new CommandLine(args);
+        String dbFolder=cl.positional(0);
+        String[] categories=cl.positional(1).split("\\|");
+        long startTime=System.currentTimeMillis();
+        String engine=cl.option("engine", "frontier");
+        int threads=cl.intOption("threads", Runtime.getRuntime().availableProcessors());
+        String write=cl.option("write", "properties");
+        String output=cl.option("output", null);
+        int batchSize=cl.intOption("batch", 50000);
+        boolean condense=cl.hasOption("condense");
+        int k=cl.intOption("k", categories.length);
+        int maxDistance=cl.intOption("max-distance", Integer.MAX_VALUE);
+        if(!engine.equals("frontier") && !engine.equals("dial") && !engine.equals("parallel") && !engine.equals("nearest")){
+            System.err.println("unknown engine "+engine+", expecting frontier, dial, parallel or nearest");
+            return;
+        }
+        if(condense && engine.equals("frontier")){
+            System.err.println("--condense works only with the dial, parallel and nearest engines");
+            return;
+        }
+        if(!write.equals("properties") && !write.equals("packed") && !write.equals("none")){
+            System.err.println("unknown write mode "+write+", expecting properties, packed or none");
+            return;
+        }
+        //the nearest engine leaves unreachable the sources beyond the k nearest or the maximum distance
+        boolean complete=!engine.equals("nearest") || (k>=categories.length && maxDistance==Integer.MAX_VALUE);
+        Metrics.startLog(cl);
+        metrics.setPhase("distances");
+        if(engine.equals("frontier")){
+            GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+            frontierDistances(graphDb, categories, batchSize, new File(dbFolder, "distances.checkpoint"));
+            recordRun(graphDb, engine, true);
+            graphDb.shutdown();
+        }
+        else if(cl.hasOption("snapshot")){
+            System.out.println("Reading the category graph from the snapshot "+cl.option("snapshot", null));
+            CategoryGraphSnapshot snapshot=CategoryGraphSnapshot.open(cl.option("snapshot", null));
+            System.out.println(snapshot.nodeCount()+" categories and "+snapshot.subcategoryEdgeCount()+" edges found");
+            IntFunction<int[]> distances=computeDistances(engine, snapshot, categories, threads, condense, k, maxDistance);
+            if(output!=null)
+                writeTable(new DistanceTable(categories, snapshot::name, snapshot.nodeCount(), distances), output);
+            //with a snapshot Neo4j is needed only to store the results
+            if(!write.equals("none")){
+                GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+                writeBack(graphDb, write, snapshot::nodeId, categories, distances, snapshot.nodeCount(), batchSize);
+                recordRun(graphDb, engine, complete, cl.option("snapshot", null), output);
+                graphDb.shutdown();
+            }
+        }
+        else{
+            GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+            System.out.println("Reading the category graph...");
+            Neo4jCategoryAdjacency graph;
+            IntFunction<int[]> distances;
+            String[] names=null;
+            //nested transactions are flattened in the outer one, so the distances are written after closing it
+            try ( Transaction tx = graphDb.beginTx()){
+                graph=new Neo4jCategoryAdjacency(graphDb);
+                System.out.println(graph.nodeCount()+" categories found");
+                //the parallel engine needs a graph that can be read from many threads
+                CategoryAdjacency adjacency=graph;
+                if(engine.equals("parallel")){
+                    InMemoryCategoryAdjacency copy=InMemoryCategoryAdjacency.copyOf(graph);
+                    System.out.println(copy.edgeCount()+" edges copied in memory");
+                    adjacency=copy;
+                }
+                distances=computeDistances(engine, adjacency, categories, threads, condense, k, maxDistance);
+                if(output!=null){
+                    names=new String[graph.nodeCount()];
+                    for(int i=0;i<names.length;i++)
+                        names[i]=adjacency.name(i);
+                }
+                tx.success();
+            }
+            if(output!=null){
+                String[] rowNames=names;
+                writeTable(new DistanceTable(categories, i->rowNames[i], graph.nodeCount(), distances), output);
+            }
+            writeBack(graphDb, write, graph::nodeId, categories, distances, graph.nodeCount(), batchSize);
+            if(!write.equals("none"))
+                recordRun(graphDb, engine, complete, output);
+            graphDb.shutdown();
+        }
+        System.out.println("Distances calculated with the "+engine+" engine in "+(System.currentTimeMillis()-startTime)/1000+"s");
+        metrics.setPhase("done");
+        metrics.stopLog();
+    }
+    
+    /**
+     * Level synchronous relaxation, a category is expanded again each time it's reached with a lower distance.
+     * The frontier is saved in the checkpoint file after each iteration, and a crashed computation is resumed
+     * from the last completed one
+     */
+    static void frontierDistances(GraphDatabaseService graphDb, String[] categories, int batchSize, File checkpoint) throws IOException{
         LinkedList<DistanceLabel> frontier=new LinkedList<>();
-        System.out.println("Initializing the macro-categories...");
-        //initialize the frontier with the starting categories
-        try ( Transaction tx = graphDb.beginTx()){
-            for(String categoryName:args[1].split("\\|")){
-                ResourceIterator<Node> matcher = graphDb.findNodesByLabelAndProperty(categoryLbl, "name", categoryName).iterator();
-                Node cat=matcher.next();
-                DistanceLabel dl = new DistanceLabel(cat,categoryName,0);
-                dl.mark();
-                frontier.add(dl);
-                matcher.close();
+        int iterations=0;
+        long expanded=0;
+        boolean resumed=false;
+        try(DataInputStream in=Checkpoints.open(checkpoint, FRONTIER_CHECKPOINT_MAGIC)){
+            if(in!=null){
+                String[] saved=new String[in.readInt()];
+                for(int c=0;c<saved.length;c++)
+                    saved[c]=in.readUTF();
+                if(Arrays.equals(saved, categories)){
+                    iterations=in.readInt();
+                    expanded=in.readLong();
+                    int size=in.readInt();
+                    DistanceLabel[] sources=new DistanceLabel[categories.length];
+                    try ( Transaction tx = graphDb.beginTx()){
+                        for(int i=0;i<size;i++){
+                            Node n=graphDb.getNodeById(in.readLong());
+                            int c=in.readInt();
+                            int distance=in.readInt();
+                            if(sources[c]==null)
+                                sources[c]=new DistanceLabel(n,categories[c],0);
+                            frontier.add(sources[c].stepOf(n, distance));
+                        }
+                        tx.success();
+                    }
+                    resumed=true;
+                    System.out.println("Resuming from iteration "+iterations+", "+frontier.size()+" nodes in the frontier");
+                }
+                else
+                    System.out.println("Ignoring the checkpoint of other macro-categories: "+String.join("|", saved));
             }
-            tx.success();
+        }
+        if(!resumed){
+            System.out.println("Initializing the macro-categories...");
+            //initialize the frontier with the starting categories
+            try ( Transaction tx = graphDb.beginTx()){
+                for(String categoryName:categories){
+                    ResourceIterator<Node> matcher = graphDb.findNodesByLabelAndProperty(categoryLbl, "name", categoryName).iterator();
+                    Node cat=matcher.next();
+                    DistanceLabel dl = new DistanceLabel(cat,categoryName,0);
+                    dl.mark();
+                    frontier.add(dl);
+                    matcher.close();
+                }
+                tx.success();
+            }
+            saveFrontier(checkpoint, categories, iterations, expanded, frontier);
         }
         
         //the next generation frontier, in a two step process
         //when the next frontier is empty, the program has finished
         LinkedList<DistanceLabel> nextFrontier=new LinkedList<>();
-        int iterations=0;
+        AtomicLong frontierSize=new AtomicLong();
+        AtomicLong nextFrontierSize=new AtomicLong();
+        metrics.gauge("distances.frontier", frontierSize::get);
+        metrics.gauge("distances.nextFrontier", nextFrontierSize::get);
+        Metrics.Counter iterationCounter=metrics.counter("distances.iterations");
+        Metrics.Counter expansions=metrics.counter("distances.expansions");
+        Metrics.Histogram iterationLatency=metrics.histogram("distances.iteration");
         while(frontier.size()>0){
             System.out.println("Iteration number "+iterations+", "+frontier.size()+" nodes to be analyzed...");
+            frontierSize.set(frontier.size());
             long startTime=System.currentTimeMillis();
-                    for(DistanceLabel dstart:frontier){
-                        try ( Transaction tx = graphDb.beginTx()){
+            long startNanos=System.nanoTime();
+                    expanded+=frontier.size();
+                    //a resumed iteration may find the marks it committed before the crash, the nodes with the
+                    //same distance are added again to the next frontier, once
+                    HashSet<String> added=resumed ? new HashSet<>() : null;
+                    //the frontier nodes are expanded in transactions of batchSize nodes
+                    int pending=0;
+                    Transaction tx = graphDb.beginTx();
+                    try{
+                        for(DistanceLabel dstart:frontier){
                             //add subcategories
                             for(Node contained:dstart.getContained()){
                                 DistanceLabel candidate = dstart.stepOf(contained,1);
                                 //if the node has changed (so it's a new node or has been reached with a lower distance) add it to the next frontier
-                                if(candidate.mark()){
+                                if(resumed ? candidate.markAtMost() && added.add(contained.getId()+":"+candidate) : candidate.mark()){
                                     nextFrontier.add(candidate);
                                 }
                             }
@@ -70,17 +247,270 @@ public class CalculateCategoryDistances {
                             for(Node contained:dstart.getContainers()){
                                 DistanceLabel candidate = dstart.stepOf(contained,3);
                                 //if the node has changed (so it's a new node or has been reached with a lower distance) add it to the next frontier
-                                if(candidate.mark()){
+                                if(resumed ? candidate.markAtMost() && added.add(contained.getId()+":"+candidate) : candidate.mark()){
                                     nextFrontier.add(candidate);
                                 }
                             }
-                            tx.success();
+                            expansions.increment();
+                            nextFrontierSize.set(nextFrontier.size());
+                            if(++pending==batchSize){
+                                tx=commitBatch(graphDb, tx, iterations, pending);
+                                pending=0;
+                            }
                         }
+                        tx.success();
+                    }
+                    finally{
+                        tx.close();
                     }
                     System.out.println("Iteration number "+iterations+" finished in "+(System.currentTimeMillis()-startTime)/1000+"s, "+nextFrontier.size()+" nodes pending for the next iteration");
+                    iterationLatency.since(startNanos);
+                    iterationCounter.increment();
+                    metrics.event("iteration", "number", iterations, "frontier", frontier.size(), "next", nextFrontier.size(),
+                            "millis", System.currentTimeMillis()-startTime);
                     frontier=nextFrontier;
                     nextFrontier=new LinkedList<>();
                     iterations++;
+                    resumed=false;
+                    saveFrontier(checkpoint, categories, iterations, expanded, frontier);
+        }
+        frontierSize.set(0);
+        nextFrontierSize.set(0);
+        Checkpoints.delete(checkpoint);
+        System.out.println(iterations+" iterations, "+expanded+" category expansions");
+    }
+    
+    /**
+     * Commit a batch of writes and begin the next transaction, recording the commit latency and a JFR event
+     * @param position the iteration or the row reached
+     */
+    private static Transaction commitBatch(GraphDatabaseService graphDb, Transaction tx, long position, int pending){
+        Object event=CommitEvents.begin();
+        long startTime=System.nanoTime();
+        tx.success();
+        tx.close();
+        commitLatency.since(startTime);
+        CommitEvents.end(event, metrics.getPhase(), position, pending);
+        return graphDb.beginTx();
+    }
+    
+    /**
+     * Save the frontier of the next iteration, as node ID, macro-category number and distance of each label
+     */
+    private static void saveFrontier(File checkpoint, String[] categories, int iterations, long expanded, LinkedList<DistanceLabel> frontier) throws IOException{
+        HashMap<String,Integer> index=new HashMap<>();
+        for(int c=0;c<categories.length;c++)
+            index.put(categories[c], c);
+        Checkpoints.save(checkpoint, FRONTIER_CHECKPOINT_MAGIC, out -> {
+            out.writeInt(categories.length);
+            for(String c:categories)
+                out.writeUTF(c);
+            out.writeInt(iterations);
+            out.writeLong(expanded);
+            out.writeInt(frontier.size());
+            for(DistanceLabel dl:frontier){
+                out.writeLong(dl.getNode().getId());
+                out.writeInt(index.get(dl.getCategory()));
+                out.writeInt(dl.getDistance());
+            }
+        });
+    }
+    
+    /**
+     * Return the distances computed with the in-memory engines, as a row per category where the element c
+     * is the distance from categories[c].
+     * When condensing, the strongly connected components are reported first
+     */
+    private static IntFunction<int[]> computeDistances(String engine, CategoryAdjacency graph, String[] categories, int threads, boolean condense, int k, int maxDistance){
+        int[] sources=new int[categories.length];
+        for(int c=0;c<categories.length;c++){
+            sources[c]=graph.indexOf(categories[c]);
+            if(sources[c]<0)
+                System.err.println("category "+categories[c]+" not found, it will have no distances");
+        }
+        if(condense){
+            long startTime=System.currentTimeMillis();
+            CategoryCondensation condensation=CategoryCondensation.of(graph);
+            InMemoryCategoryAdjacency condensed=condensation.graph();
+            System.out.println("Graph condensed in "+(System.currentTimeMillis()-startTime)+"ms: "+condensed.nodeCount()+" components and "+condensed.edgeCount()+" edges, "
+                    +condensation.nodesRemoved()+" categories and "+condensation.edgesRemoved()+" edges removed, the largest component has "+condensation.largestComponent()+" categories");
+        }
+        return computeRows(engine, graph, categories, sources, threads, k, maxDistance);
+    }
+    
+    private static IntFunction<int[]> computeRows(String engine, CategoryAdjacency graph, String[] categories, int[] sources, int threads, int k, int maxDistance){
+        if(engine.equals("nearest"))
+            return nearestSources(graph, categories, sources, k, maxDistance)::row;
+        int[][] distances=engine.equals("parallel") ? parallelDistances(graph, categories, sources, threads) : dialDistances(graph, categories, sources);
+        return i->distances[i];
+    }
+    
+    /**
+     * Only the k nearest sources of each category, within the maximum distance, with NearestSources.
+     * The labels take k ints per category instead of one per source
+     */
+    private static NearestSources.Labels nearestSources(CategoryAdjacency graph, String[] categories, int[] sources, int k, int maxDistance){
+        long startTime=System.currentTimeMillis();
+        NearestSources nearest=new NearestSources(graph, Math.min(k, categories.length), maxDistance);
+        NearestSources.Labels labels=nearest.run(sources);
+        long found=0;
+        for(int i=0;i<graph.nodeCount();i++)
+            found+=labels.count(i);
+        System.out.println("Nearest "+k+" of "+categories.length+" categories"+(maxDistance==Integer.MAX_VALUE ? "" : " within distance "+maxDistance)
+                +" found in "+(System.currentTimeMillis()-startTime)/1000+"s, "+found+" distances kept, "+nearest.getRelaxations()+" edges examined");
+        return labels;
+    }
+    
+    /**
+     * Label setting computation with DialShortestPaths, one source at a time.
+     * Every category is expanded once per source
+     */
+    private static int[][] dialDistances(CategoryAdjacency graph, String[] categories, int[] sources){
+        DialShortestPaths dial=new DialShortestPaths(graph);
+        int[][] distances=new int[graph.nodeCount()][categories.length];
+        long expanded=0;
+        for(int c=0;c<categories.length;c++){
+            long startTime=System.currentTimeMillis();
+            metrics.setPhase("distances "+categories[c]);
+            int[] column=sources[c]<0 ? dial.run() : dial.run(sources[c]);
+            expanded+=dial.getSettledCount();
+            System.out.println("Distances from "+categories[c]+" calculated in "+(System.currentTimeMillis()-startTime)/1000+"s, "+dial.getSettledCount()+" categories settled and "+dial.getRelaxations()+" edges examined");
+            for(int i=0;i<distances.length;i++)
+                distances[i][c]=column[i];
+        }
+        System.out.println(expanded+" category expansions");
+        return distances;
+    }
+    
+    /**
+     * Computation of all the sources at the same time with MultiSourceDistances,
+     * each thread computes the distances from a source on the shared graph
+     */
+    private static int[][] parallelDistances(CategoryAdjacency graph, String[] categories, int[] sources, int threads){
+        ForkJoinPool pool=new ForkJoinPool(threads);
+        long startTime=System.currentTimeMillis();
+        MultiSourceDistances multi=new MultiSourceDistances(graph, pool);
+        int[][] distances=multi.compute(sources);
+        pool.shutdown();
+        long elapsed=Math.max(1, System.currentTimeMillis()-startTime);
+        System.out.println("Distances from "+categories.length+" categories calculated on "+threads+" threads in "+elapsed/1000+"s, "+multi.getSettledCount()+" category expansions, "
+                +String.format("%.1f", multi.getSourceMillis()/(double)elapsed)+" sources computed in parallel on average");
+        return distances;
+    }
+    
+    private static void writeTable(DistanceTable table, String output) throws IOException{
+        long startTime=System.currentTimeMillis();
+        table.write(output);
+        long elapsed=Math.max(1, System.currentTimeMillis()-startTime);
+        System.out.println("Distance table of "+table.rowCount()+" categories written to "+output+" in "+elapsed+"ms, "+table.rowCount()*1000L/elapsed+" rows/s");
+    }
+    
+    /**
+     * Replace the DistanceRun node with one describing this run: the engine, whether the distances are complete
+     * and the absolute paths of the given files, the null ones are skipped
+     */
+    private static void recordRun(GraphDatabaseService graphDb, String engine, boolean complete, String... files){
+        ArrayList<String> paths=new ArrayList<>();
+        for(String f:files)
+            if(f!=null)
+                paths.add(new File(f).getAbsolutePath());
+        try ( Transaction tx = graphDb.beginTx()){
+            for(Node old:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(distanceRunLbl))
+                old.delete();
+            Node run=graphDb.createNode(distanceRunLbl);
+            run.setProperty("engine", engine);
+            run.setProperty("complete", complete);
+            run.setProperty("files", paths.toArray(new String[0]));
+            tx.success();
+        }
+    }
+    
+    private static void writeBack(GraphDatabaseService graphDb, String write, IntToLongFunction nodeIds, String[] categories, IntFunction<int[]> distances, int rowCount, int batchSize){
+        if(write.equals("none"))
+            return;
+        metrics.setPhase("write "+write);
+        long startTime=System.currentTimeMillis();
+        long written;
+        if(write.equals("packed"))
+            written=writePackedDistances(graphDb, nodeIds, categories, distances, rowCount, batchSize);
+        else
+            written=writeDistances(graphDb, nodeIds, categories, distances, rowCount, batchSize);
+        long elapsed=Math.max(1, System.currentTimeMillis()-startTime);
+        System.out.println("Distances of "+rowCount+" categories written back in "+elapsed+"ms, "+written+" properties, "
+                +rowCount*1000L/elapsed+" nodes/s and "+written*1000L/elapsed+" properties/s");
+    }
+    
+    /**
+     * Store the distances as distance_ properties, committing every batchSize nodes.
+     * The element c of the row i is the distance of the category i from categories[c].
+     * The property of an unreachable source is removed, since it can be left by an earlier run, as UpdateCategoryGraph does.
+     * Returns the number of properties written
+     */
+    private static long writeDistances(GraphDatabaseService graphDb, IntToLongFunction nodeIds, String[] categories, IntFunction<int[]> distances, int rowCount, int batchSize){
+        String[] properties=new String[categories.length];
+        for(int c=0;c<categories.length;c++)
+            properties[c]="distance_"+categories[c];
+        long written=0;
+        int pending=0;
+        Transaction tx=graphDb.beginTx();
+        try{
+            for(int i=0;i<rowCount;i++){
+                int[] row=distances.apply(i);
+                Node node=graphDb.getNodeById(nodeIds.applyAsLong(i));
+                for(int c=0;c<categories.length;c++){
+                    if(row[c]==DialShortestPaths.UNREACHABLE){
+                        node.removeProperty(properties[c]);
+                        continue;
+                    }
+                    node.setProperty(properties[c], row[c]);
+                    written++;
+                }
+                if(++pending==batchSize){
+                    tx=commitBatch(graphDb, tx, i, pending);
+                    pending=0;
+                }
+            }
+            tx.success();
+        }
+        finally{
+            tx.close();
+        }
+        return written;
+    }
+    
+    /**
+     * Store the distances of each category as a single int array property, named distances, with -1 for
+     * unreachable sources. The order of the sources is stored in the sources property of a DistanceSources node.
+     * Returns the number of properties written
+     */
+    private static long writePackedDistances(GraphDatabaseService graphDb, IntToLongFunction nodeIds, String[] categories, IntFunction<int[]> distances, int rowCount, int batchSize){
+        try ( Transaction tx = graphDb.beginTx()){
+            for(Node old:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(distanceSourcesLbl))
+                old.delete();
+            graphDb.createNode(distanceSourcesLbl).setProperty("sources", categories);
+            tx.success();
+        }
+        long written=0;
+        int pending=0;
+        Transaction tx=graphDb.beginTx();
+        try{
+            for(int i=0;i<rowCount;i++){
+                int[] row=distances.apply(i);
+                int[] packed=new int[categories.length];
+                for(int c=0;c<categories.length;c++)
+                    packed[c]=row[c]==DialShortestPaths.UNREACHABLE ? DistanceTable.UNREACHABLE : row[c];
+                graphDb.getNodeById(nodeIds.applyAsLong(i)).setProperty("distances", packed);
+                written++;
+                if(++pending==batchSize){
+                    tx=commitBatch(graphDb, tx, i, pending);
+                    pending=0;
+                }
+            }
+            tx.success();
+        }
+        finally{
+            tx.close();
         }
+        return written;
     }
 }
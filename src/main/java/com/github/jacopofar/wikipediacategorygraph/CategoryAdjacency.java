@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Read access to the SUBCATEGORY_OF edges, with the categories numbered from 0 to nodeCount()-1.
+ * The neighbors are passed to a consumer, so an engine can traverse the graph reusing the same consumer
+ */
+public interface CategoryAdjacency {
+    int nodeCount();
+
+    /**
+     * Return the number of the category with the given name, or -1 if there is no such category
+     */
+    int indexOf(String name);
+
+    String name(int node);
+
+    /**
+     * Pass to the consumer the sub-categories of the given one
+     */
+    void forEachContained(int node, IntConsumer consumer);
+
+    /**
+     * Pass to the consumer the categories containing the given one
+     */
+    void forEachContainer(int node, IntConsumer consumer);
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The category graph with each strongly connected component of SUBCATEGORY_OF collapsed in a single category.
+ * Categories in a cycle contain each other, so they are treated as one: the condensed graph has an edge between
+ * two components when a category of one is a sub-category of a category of the other, with the usual costs,
+ * and the parallel and internal edges are dropped.
+ *
+ * It reports how much of the graph is in cycles. It's not used to compute the distances: these go both up and
+ * down the edges, so the order of the components gives no order to settle them in, and the distances of the
+ * condensed graph are only a lower bound of the ones of its categories, since inside a component the steps
+ * between the members cost nothing.
+ *
+ * The components are found with an iterative Tarjan's algorithm over a copy of the edges in primitive arrays,
+ * so deep chains of categories don't overflow the stack.
+ */
+public class CategoryCondensation {
+    private final int[] component;
+    private final InMemoryCategoryAdjacency condensed;
+    private final long edgeCount;
+
+    private CategoryCondensation(int[] component, InMemoryCategoryAdjacency condensed, long edgeCount){
+        this.component = component;
+        this.condensed = condensed;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Condense the graph, each component is named as its first category
+     */
+    public static CategoryCondensation of(CategoryAdjacency graph){
+        int n = graph.nodeCount();
+        //the containers of each category, in compressed sparse row form
+        int[] offsets = new int[n + 1];
+        IntList targets = new IntList();
+        for(int i = 0; i < n; i++){
+            graph.forEachContainer(i, targets);
+            offsets[i + 1] = targets.size;
+        }
+        int[] component = new int[n];
+        int components = tarjan(n, offsets, targets.items, component);
+        //the edges between different components, as sub-category and container component, without duplicates
+        long[] edges = new long[targets.size];
+        int count = 0;
+        for(int i = 0; i < n; i++)
+            for(int e = offsets[i]; e < offsets[i + 1]; e++)
+                if(component[i] != component[targets.items[e]])
+                    edges[count++] = ((long) component[i] << 32) | component[targets.items[e]];
+        Arrays.sort(edges, 0, count);
+        int unique = 0;
+        for(int e = 0; e < count; e++)
+            if(unique == 0 || edges[e] != edges[unique - 1])
+                edges[unique++] = edges[e];
+        int[] containerOffsets = new int[components + 1];
+        int[] containedOffsets = new int[components + 1];
+        for(int e = 0; e < unique; e++){
+            containerOffsets[(int) (edges[e] >>> 32) + 1]++;
+            containedOffsets[(int) edges[e] + 1]++;
+        }
+        for(int c = 0; c < components; c++){
+            containerOffsets[c + 1] += containerOffsets[c];
+            containedOffsets[c + 1] += containedOffsets[c];
+        }
+        int[] containers = new int[unique];
+        int[] contained = new int[unique];
+        int[] containedPos = Arrays.copyOf(containedOffsets, components);
+        //the edges are sorted by sub-category, so the containers are filled in order
+        for(int e = 0; e < unique; e++){
+            int sub = (int) (edges[e] >>> 32);
+            int container = (int) edges[e];
+            containers[e] = container;
+            contained[containedPos[container]++] = sub;
+        }
+        String[] names = new String[components];
+        for(int i = 0; i < n; i++)
+            if(names[component[i]] == null)
+                names[component[i]] = graph.name(i);
+        return new CategoryCondensation(component, new InMemoryCategoryAdjacency(containedOffsets, contained, containerOffsets, containers, names), targets.size);
+    }
+
+    /**
+     * Number the strongly connected components in the order Tarjan's algorithm closes them
+     * @return the number of components
+     */
+    private static int tarjan(int n, int[] offsets, int[] targets, int[] component){
+        final int unvisited = -1;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        //the explicit call stack: the category and the position in its edges
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        Arrays.fill(index, unvisited);
+        int nextIndex = 0;
+        int components = 0;
+        for(int root = 0; root < n; root++){
+            if(index[root] != unvisited)
+                continue;
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = offsets[root];
+            index[root] = low[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while(depth >= 0){
+                int v = callNode[depth];
+                if(callEdge[depth] < offsets[v + 1]){
+                    int w = targets[callEdge[depth]++];
+                    if(index[w] == unvisited){
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = offsets[w];
+                        index[w] = low[w] = nextIndex++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                    }
+                    else if(onStack[w])
+                        low[v] = Math.min(low[v], index[w]);
+                    continue;
+                }
+                //all the edges of v visited, close its component if it's the root of one
+                if(low[v] == index[v]){
+                    int w;
+                    do{
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        component[w] = components;
+                    }while(w != v);
+                    components++;
+                }
+                depth--;
+                if(depth >= 0)
+                    low[callNode[depth]] = Math.min(low[callNode[depth]], low[v]);
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @return the condensed graph, where category i is the component i
+     */
+    public InMemoryCategoryAdjacency graph(){
+        return condensed;
+    }
+
+    /**
+     * @return the component of the given category
+     */
+    public int componentOf(int node){
+        return component[node];
+    }
+
+    public int nodesRemoved(){
+        return component.length - condensed.nodeCount();
+    }
+
+    public long edgesRemoved(){
+        return edgeCount - condensed.edgeCount();
+    }
+
+    /**
+     * @return the number of categories in the largest component
+     */
+    public int largestComponent(){
+        int[] sizes = new int[condensed.nodeCount()];
+        int max = 0;
+        for(int c:component)
+            max = Math.max(max, ++sizes[c]);
+        return max;
+    }
+
+    private static class IntList implements IntConsumer {
+        private int[] items = new int[1 << 16];
+        private int size = 0;
+
+        @Override
+        public void accept(int v){
+            if(size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.inCategoryRel;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.subCategoryOfRel;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+/**
+ * The two loading phases, shared by the transactional and the offline import.
+ * While loading the categories it fills the dictionaries from name and ID to node, so the link phase
+ * resolves both the endpoints of every edge in memory, without querying the store indexes.
+ * Articles are created the first time they are found, and remembered in a map from page ID to node.
+ * With parser threads the dumps are read through a DumpPipeline, the writes are still done by the calling
+ * thread in the file order. loadLinksParallel creates the relationships from several threads, see ParallelLinkWriter.
+ *
+ * With checkpoints enabled each commit records in the store the phase and the offset of the first statement
+ * not loaded yet, and periodically the dictionaries are saved in a checkpoint file. A crashed load is resumed
+ * restoring the dictionaries of the checkpoint and completing them with the nodes created between the
+ * checkpoint and the last commit, found through the ID indexes. The parallel link phase can't be resumed from the
+ * middle: its relationships and articles are deleted and the links are loaded again, sequentially.
+ */
+class CategoryGraphLoader {
+    static final String CATEGORIES = "categories";
+    static final String LINKS = "links";
+    static final String PARALLEL_LINKS = "parallel-links";
+    static final String DONE = "done";
+    private static final int CHECKPOINT_MAGIC = 0x5743434b;
+
+    private final GraphWriter writer;
+    private final int parsers;
+    final NameDictionary categoryByName = new NameDictionary(1 << 16);
+    final IntLongHashMap categoryByID = new IntLongHashMap(1 << 16);
+    final IntLongHashMap articleNodes = new IntLongHashMap(1 << 18);
+
+    private final Metrics metrics = Metrics.global();
+    private final Metrics.Counter statements = metrics.counter("load.statements");
+    //tuples and links count the tuples left by the filters, in the parser threads or here, the filtered ones are counted apart
+    private final Metrics.Counter tuples = metrics.counter("load.tuples");
+    private final Metrics.Counter categories = metrics.counter("load.categories");
+    private final Metrics.Counter internalCategories = metrics.counter("load.internalCategories");
+    private final Metrics.Counter edges = metrics.counter("load.links");
+    private final Metrics.Counter fileLinks = metrics.counter("load.fileLinks");
+    private final Metrics.Counter missingContainers = metrics.counter("load.missingContainers");
+    private final Metrics.Counter articles = metrics.counter("load.articles");
+    private final Metrics.Counter articleEdges = metrics.counter("load.inCategory");
+    private final Metrics.Counter subcategoryEdges = metrics.counter("load.subcategoryOf");
+    private final Metrics.Histogram categoryLookup = metrics.histogram("load.lookup.category");
+    private final Metrics.Histogram articleLookup = metrics.histogram("load.lookup.article");
+    private final Metrics.Histogram indexLookup = metrics.histogram("load.lookup.index");
+    private final Metrics.Histogram commitLatency = metrics.histogram("load.commit");
+    private long transactionTuples = 0;
+
+    private File checkpoint = null;
+    private long checkpointInterval;
+    private long lastCheckpoint;
+
+    /**
+     * @param parsers the number of threads parsing the dumps, 0 to parse them in the calling thread
+     */
+    CategoryGraphLoader(GraphWriter writer, int parsers){
+        this.writer = writer;
+        this.parsers = parsers;
+    }
+
+    /**
+     * Record the progress at each commit and save the dictionaries in the given file every interval milliseconds
+     */
+    void enableCheckpoints(File file, long interval){
+        this.checkpoint = file;
+        this.checkpointInterval = interval;
+        this.lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * Parse a dump from the given offset, in a pipeline if there are parser threads.
+     * The pipeline discards in the parser threads the tuples rejected by the filter, so the filter counts them
+     */
+    private void parse(String file, long offset, Predicate<SqlTuple> filter, SqlValuesTokenizer.TupleHandler handler) throws IOException{
+        try{
+            if(parsers > 0)
+                new DumpPipeline(parsers).run(file, offset, filter, handler);
+            else
+                SqlValuesTokenizer.parse(file, offset, -1, handler);
+        }
+        catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Commit the statements up to the given offset of the phase file, saving a checkpoint if it's time to
+     */
+    private void commit(String phase, long offset) throws IOException{
+        statements.increment();
+        Object event = CommitEvents.begin();
+        long startTime = System.nanoTime();
+        if(checkpoint != null)
+            writer.progress(phase, offset);
+        writer.commit();
+        commitLatency.since(startTime);
+        CommitEvents.end(event, phase, offset, transactionTuples);
+        transactionTuples = 0;
+        if(checkpoint != null && System.currentTimeMillis() - lastCheckpoint >= checkpointInterval)
+            saveCheckpoint(phase, offset);
+    }
+
+    private void saveCheckpoint(String phase, long offset) throws IOException{
+        long startTime = System.currentTimeMillis();
+        Checkpoints.save(checkpoint, CHECKPOINT_MAGIC, out -> {
+            out.writeUTF(phase);
+            out.writeLong(offset);
+            out.writeLong(categories.get());
+            out.writeLong(edges.get());
+            out.writeLong(articleEdges.get());
+            out.writeLong(subcategoryEdges.get());
+            categoryByName.writeTo(out);
+            categoryByID.writeTo(out);
+            articleNodes.writeTo(out);
+        });
+        lastCheckpoint = System.currentTimeMillis();
+        System.out.println(" - checkpoint saved at " + phase + " offset " + offset + " in " + (lastCheckpoint - startTime) + "ms");
+    }
+
+    /**
+     * Restore the state of a load interrupted after committing the given progress,
+     * from the checkpoint file and the nodes in the store, which must be the one of the loader writer
+     * @return the offset of the progress phase to continue from
+     */
+    long resume(TransactionalGraphWriter store, String categoryFile, String categoryLinksFile, String phase, long offset) throws IOException{
+        String savedPhase = CATEGORIES;
+        long savedOffset = 0;
+        try(DataInputStream in = Checkpoints.open(checkpoint, CHECKPOINT_MAGIC)){
+            if(in != null){
+                savedPhase = in.readUTF();
+                savedOffset = in.readLong();
+                categories.add(in.readLong());
+                edges.add(in.readLong());
+                articleEdges.add(in.readLong());
+                subcategoryEdges.add(in.readLong());
+                categoryByName.readFrom(in);
+                categoryByID.readFrom(in);
+                articleNodes.readFrom(in);
+                System.out.println("Checkpoint restored at " + savedPhase + " offset " + savedOffset);
+            }
+        }
+        //the statements committed after the checkpoint are already in the store, only their nodes are looked up
+        if(savedPhase.equals(CATEGORIES)){
+            long end = phase.equals(CATEGORIES) ? offset : -1;
+            System.out.println("Looking up the categories committed after the checkpoint...");
+            SqlValuesTokenizer.parse(categoryFile, savedOffset, end, category -> {
+                if(CreateCategoryGraph.isInternalCategory(category, 1))
+                    return;
+                long startTime = System.nanoTime();
+                long node = store.findNode(categoryLbl, category.getInt(0));
+                indexLookup.since(startTime);
+                if(node < 0)
+                    return;
+                categoryByName.put(category.array(), category.start(1), category.length(1), node);
+                categoryByID.put(category.getInt(0), node);
+                categories.increment();
+            });
+            savedOffset = 0;
+        }
+        if(phase.equals(LINKS)){
+            System.out.println("Looking up the articles committed after the checkpoint...");
+            SqlValuesTokenizer.parse(categoryLinksFile, savedOffset, offset, edge -> {
+                if(!edge.fieldEquals(edge.size() - 1, CreateCategoryGraph.PAGE) || articleNodes.containsKey(edge.getInt(0)))
+                    return;
+                long startTime = System.nanoTime();
+                long node = store.findNode(articleLbl, edge.getInt(0));
+                indexLookup.since(startTime);
+                if(node >= 0)
+                    articleNodes.put(edge.getInt(0), node);
+            });
+        }
+        articles.add(articleNodes.size());
+        System.out.println("Resuming the " + phase + " phase from offset " + offset);
+        return offset;
+    }
+
+    /**
+     * Load the category.sql file, creating a node for each category
+     */
+    void loadCategories(String categoryFile) throws IOException{
+        loadCategories(categoryFile, 0);
+    }
+
+    /**
+     * Load the category.sql file from the given offset
+     */
+    void loadCategories(String categoryFile, long offset) throws IOException{
+        long lastTime=System.currentTimeMillis();
+        metrics.setPhase(CATEGORIES);
+        //tuples in the form (2,'Unprintworthy_redirects',1102027,15,0)
+        //where the first values are the ID and the category name (the others the number of articles, subcategories and files)
+        parse(categoryFile, offset, this::notInternal, new SqlValuesTokenizer.TupleHandler() {
+            @Override
+            public void tuple(SqlTuple category) {
+                addCategory(category);
+            }
+
+            @Override
+            public void statementEnd(long offset) {
+                commitUnchecked(CATEGORIES, offset);
+            }
+        });
+        if(checkpoint != null){
+            commit(LINKS, 0);
+            saveCheckpoint(LINKS, 0);
+        }
+        System.out.println("Loaded "+categories.get()+" categories in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+    }
+
+    private void commitUnchecked(String phase, long offset){
+        try{
+            commit(phase, offset);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("cannot save the checkpoint", e);
+        }
+    }
+
+    private boolean notInternal(SqlTuple category){
+        if(!CreateCategoryGraph.isInternalCategory(category, 1))
+            return true;
+        internalCategories.increment();
+        return false;
+    }
+
+    void addCategory(SqlTuple category){
+        if(!notInternal(category))
+            return;
+        tuples.increment();
+        transactionTuples++;
+        int ID=category.getInt(0);
+        long node=writer.createNode(categoryLbl, ID, category.getString(1));
+        categoryByName.put(category.array(), category.start(1), category.length(1), node);
+        categoryByID.put(ID, node);
+        if(categories.increment()%100000==0)
+            System.out.println(" - loaded "+categories+" categories");
+    }
+
+    /**
+     * Load the categorylinks.sql file, creating the edges and the article nodes
+     */
+    void loadLinks(String categoryLinksFile) throws IOException{
+        loadLinks(categoryLinksFile, 0);
+    }
+
+    /**
+     * Load the categorylinks.sql file from the given offset
+     */
+    void loadLinks(String categoryLinksFile, long offset) throws IOException{
+        long lastTime=System.currentTimeMillis();
+        metrics.setPhase(LINKS);
+        //tuples in the form (cl_from,cl_to,cl_sortkey,cl_timestamp,cl_sortkey_prefix,cl_collation,cl_type)
+        //where the first value is the ID of the sub-category or article,
+        //the second is the name of the containing category
+        //the third is the uppercase normalized name of the article or category
+        //and the last one tells whether cl_from is a page, a subcat or a file
+        parse(categoryLinksFile, offset, this::notFile, new SqlValuesTokenizer.TupleHandler() {
+            @Override
+            public void tuple(SqlTuple edge) {
+                addLink(edge);
+            }
+
+            @Override
+            public void statementEnd(long offset) {
+                commitUnchecked(LINKS, offset);
+            }
+        });
+        if(checkpoint != null){
+            commit(DONE, 0);
+            Checkpoints.delete(checkpoint);
+        }
+        metrics.setPhase(DONE);
+        System.out.println("Loaded "+edges.get()+" edges ("+articleEdges.get()+" articles and "+subcategoryEdges.get()+" categories) in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+    }
+
+    /**
+     * Load the categorylinks.sql file creating the articles in this thread, in the file order,
+     * and the relationships at the end with the given number of threads, in transactions of batchSize relationships
+     * @param denseThreshold the dense_node_threshold graphDb was configured with
+     * @param tempFolder where the relationships are kept until they are written
+     */
+    void loadLinksParallel(String categoryLinksFile, GraphDatabaseService graphDb, int writers, int batchSize, int denseThreshold, File tempFolder) throws IOException{
+        long lastTime=System.currentTimeMillis();
+        metrics.setPhase(PARALLEL_LINKS);
+        if(checkpoint != null){
+            //the checkpoint of the end of the categories stays the one to restart from
+            writer.progress(PARALLEL_LINKS, 0);
+            writer.commit();
+        }
+        try(ParallelLinkWriter lanes=new ParallelLinkWriter(writer, graphDb, writers, batchSize, denseThreshold, tempFolder)){
+            parse(categoryLinksFile, 0, this::notFile, new SqlValuesTokenizer.TupleHandler() {
+                @Override
+                public void tuple(SqlTuple edge) {
+                    addLink(edge, lanes);
+                }
+
+                @Override
+                public void statementEnd(long offset) {
+                    statements.increment();
+                    long startTime = System.nanoTime();
+                    lanes.commit();
+                    commitLatency.since(startTime);
+                    transactionTuples = 0;
+                }
+            });
+            System.out.println("Created "+articles.get()+" articles in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+            lanes.write();
+        }
+        if(checkpoint != null){
+            commit(DONE, 0);
+            Checkpoints.delete(checkpoint);
+        }
+        metrics.setPhase(DONE);
+        System.out.println("Loaded "+edges.get()+" edges ("+articleEdges.get()+" articles and "+subcategoryEdges.get()+" categories) in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+    }
+
+    /**
+     * Undo an interrupted parallel link phase, after resume() restored the categories
+     */
+    void deleteParallelLinks(GraphDatabaseService graphDb, int batchSize){
+        ParallelLinkWriter.deleteLinks(graphDb, writer, categoryByID, batchSize);
+    }
+
+    private boolean notFile(SqlTuple edge){
+        if(!edge.fieldEquals(edge.size()-1, CreateCategoryGraph.FILE))
+            return true;
+        fileLinks.increment();
+        return false;
+    }
+
+    void addLink(SqlTuple edge){
+        addLink(edge, writer);
+    }
+
+    /**
+     * Add the edge creating its nodes and relationship with the given writer
+     */
+    private void addLink(SqlTuple edge, GraphWriter writer){
+        if(!notFile(edge))
+            return;
+        tuples.increment();
+        transactionTuples++;
+        if(edges.increment()%100000==0)
+            System.out.println(" - parsed "+edges.get()+" edges ("+articleEdges.get()+" articles and "+subcategoryEdges.get()+" categories so far)");
+        int type=edge.size()-1;
+        long startTime=System.nanoTime();
+        long container=categoryByName.get(edge.array(), edge.start(1), edge.length(1));
+        categoryLookup.since(startTime);
+        if(container==NameDictionary.MISSING){
+            missingContainers.increment();
+            return;
+        }
+        int ID=edge.getInt(0);
+        if(edge.fieldEquals(type, CreateCategoryGraph.PAGE)){
+            startTime=System.nanoTime();
+            long article=articleNodes.get(ID);
+            articleLookup.since(startTime);
+            if(article==IntLongHashMap.MISSING){
+                article=writer.createNode(articleLbl, ID, edge.getString(2));
+                articleNodes.put(ID, article);
+                articles.increment();
+            }
+            articleEdges.increment();
+            writer.createRelationship(article, container, inCategoryRel);
+            return;
+        }
+        if(edge.fieldEquals(type, CreateCategoryGraph.SUBCAT)){
+            startTime=System.nanoTime();
+            long subcategory=categoryByID.get(ID);
+            categoryLookup.since(startTime);
+            if(subcategory==IntLongHashMap.MISSING)
+                return;
+            subcategoryEdges.increment();
+            writer.createRelationship(subcategory, container, subCategoryOfRel);
+        }
+    }
+}
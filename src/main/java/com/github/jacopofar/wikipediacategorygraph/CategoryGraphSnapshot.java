@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+
+/**
+ * Read only view of a category graph snapshot written by ExportCategorySnapshot, mapped in memory.
+ * Categories are numbered from 0 to nodeCount()-1 and articles from 0 to articleCount()-1.
+ *
+ * The snapshot file contains a header followed by six sections:
+ * the containers and the sub-categories of each category (SUBCATEGORY_OF in both directions),
+ * the categories of each article and the articles of each category (IN_CATEGORY in both directions),
+ * the Neo4j node IDs and the page IDs of categories and articles.
+ * An adjacency section has a long offset for each node plus one, followed by the neighbors of each node
+ * sorted and delta encoded as variable length integers.
+ * The names are in a side file with the same name plus .names, containing the offset of each name,
+ * the category numbers sorted by name, used for the lookup, and the UTF-8 names.
+ */
+public class CategoryGraphSnapshot implements CategoryAdjacency {
+    static final int MAGIC = 0x57434753;
+    static final int NAMES_MAGIC = 0x5743474e;
+    static final int VERSION = 1;
+    static final int CONTAINERS = 0;
+    static final int CONTAINED = 1;
+    static final int ARTICLE_CATEGORIES = 2;
+    static final int CATEGORY_ARTICLES = 3;
+    static final int NODE_IDS = 4;
+    static final int PAGE_IDS = 5;
+    static final int SECTIONS = 6;
+    static final int HEADER_SIZE = 32 + 8 * SECTIONS;
+    static final int NAMES_HEADER_SIZE = 12;
+
+    private final MappedFile graph;
+    private final MappedFile names;
+    private final int categories;
+    private final int articles;
+    private final long subcategoryEdges;
+    private final long articleEdges;
+    private final long[] sections = new long[SECTIONS];
+    private final long nameOffsets;
+    private final long sortedCategories;
+    private final long nameBytes;
+
+    private CategoryGraphSnapshot(String file) throws IOException{
+        graph = new MappedFile(file);
+        names = new MappedFile(file + ".names");
+        if(graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION)
+            throw new IOException(file + " is not a category graph snapshot of version " + VERSION);
+        if(names.getInt(0) != NAMES_MAGIC)
+            throw new IOException(file + ".names is not a snapshot name table");
+        categories = graph.getInt(8);
+        articles = graph.getInt(12);
+        subcategoryEdges = graph.getLong(16);
+        articleEdges = graph.getLong(24);
+        for(int i = 0; i < SECTIONS; i++)
+            sections[i] = graph.getLong(32 + 8 * i);
+        int count = names.getInt(4);
+        if(count != categories + articles)
+            throw new IOException(file + ".names does not belong to the snapshot");
+        nameOffsets = NAMES_HEADER_SIZE;
+        sortedCategories = nameOffsets + 8L * (count + 1);
+        nameBytes = sortedCategories + 4L * categories;
+    }
+
+    /**
+     * Map the snapshot in memory, this takes no time regardless of its size
+     */
+    public static CategoryGraphSnapshot open(String file) throws IOException{
+        return new CategoryGraphSnapshot(file);
+    }
+
+    @Override
+    public int nodeCount(){
+        return categories;
+    }
+
+    public int articleCount(){
+        return articles;
+    }
+
+    public long subcategoryEdgeCount(){
+        return subcategoryEdges;
+    }
+
+    public long articleEdgeCount(){
+        return articleEdges;
+    }
+
+    /**
+     * Pass to the consumer the nodes adjacent to the given one in a section
+     */
+    private void forEachNeighbor(int section, int nodes, int node, IntConsumer consumer){
+        long offsets = sections[section];
+        long data = offsets + 8L * (nodes + 1);
+        long pos = data + graph.getLong(offsets + 8L * node);
+        long end = data + graph.getLong(offsets + 8L * (node + 1));
+        int value = 0;
+        while(pos < end){
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do{
+                b = graph.getByte(pos++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            }while(b < 0);
+            value += delta;
+            consumer.accept(value);
+        }
+    }
+
+    @Override
+    public void forEachContained(int node, IntConsumer consumer){
+        forEachNeighbor(CONTAINED, categories, node, consumer);
+    }
+
+    @Override
+    public void forEachContainer(int node, IntConsumer consumer){
+        forEachNeighbor(CONTAINERS, categories, node, consumer);
+    }
+
+    /**
+     * Pass to the consumer the categories containing the given article
+     */
+    public void forEachArticleCategory(int article, IntConsumer consumer){
+        forEachNeighbor(ARTICLE_CATEGORIES, articles, article, consumer);
+    }
+
+    /**
+     * Pass to the consumer the articles in the given category
+     */
+    public void forEachCategoryArticle(int category, IntConsumer consumer){
+        forEachNeighbor(CATEGORY_ARTICLES, categories, category, consumer);
+    }
+
+    /**
+     * @return the Neo4j node ID of a category
+     */
+    public long nodeId(int category){
+        return graph.getLong(sections[NODE_IDS] + 8L * category);
+    }
+
+    public long articleNodeId(int article){
+        return graph.getLong(sections[NODE_IDS] + 8L * (categories + article));
+    }
+
+    /**
+     * @return the ID property of a category
+     */
+    public int pageId(int category){
+        return graph.getInt(sections[PAGE_IDS] + 4L * category);
+    }
+
+    public int articlePageId(int article){
+        return graph.getInt(sections[PAGE_IDS] + 4L * (categories + article));
+    }
+
+    private String nameAt(int entry){
+        long start = names.getLong(nameOffsets + 8L * entry);
+        int length = (int) (names.getLong(nameOffsets + 8L * (entry + 1)) - start);
+        byte[] b = new byte[length];
+        names.get(nameBytes + start, b, 0, length);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String name(int node){
+        return nameAt(node);
+    }
+
+    public String articleName(int article){
+        return nameAt(categories + article);
+    }
+
+    /**
+     * Binary search of the name among the sorted categories
+     */
+    @Override
+    public int indexOf(String name){
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = categories - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int category = names.getInt(sortedCategories + 4L * mid);
+            int cmp = compareName(category, key);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+                return category;
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the name of an entry with the given one, as unsigned bytes
+     */
+    private int compareName(int entry, byte[] key){
+        long start = names.getLong(nameOffsets + 8L * entry);
+        int length = (int) (names.getLong(nameOffsets + 8L * (entry + 1)) - start);
+        int n = Math.min(length, key.length);
+        for(int i = 0; i < n; i++){
+            int cmp = (names.getByte(nameBytes + start + i) & 0xFF) - (key[i] & 0xFF);
+            if(cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Checkpoint files of the long running steps. A checkpoint is written to a temporary file which is then
+ * moved over the previous one, so a crash while writing it leaves the previous checkpoint intact
+ */
+final class Checkpoints {
+    private Checkpoints(){
+    }
+
+    interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    static void save(File file, int magic, Content content) throws IOException{
+        File temp = new File(file.getPath() + ".tmp");
+        try(FileOutputStream fos = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 20))){
+            out.writeInt(magic);
+            content.write(out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Open a checkpoint, positioned after the magic number
+     * @return the stream to read the content from, null if there is no checkpoint
+     */
+    static DataInputStream open(File file, int magic) throws IOException{
+        if(!file.exists())
+            return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20));
+        if(in.readInt() != magic){
+            in.close();
+            throw new IOException(file + " is not a valid checkpoint");
+        }
+        return in;
+    }
+
+    static void delete(File file){
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+}
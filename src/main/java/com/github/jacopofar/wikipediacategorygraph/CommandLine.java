@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal parser for the program arguments.
+ * Arguments starting with -- are options, in the form --flag or --name=value, the others are positional
+ */
+public class CommandLine {
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+
+    public CommandLine(String args[]){
+        for(String a:args){
+            if(!a.startsWith("--")){
+                positional.add(a);
+                continue;
+            }
+            int eq = a.indexOf('=');
+            if(eq < 0)
+                options.put(a.substring(2), "");
+            else
+                options.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+    }
+
+    public List<String> positional(){
+        return positional;
+    }
+
+    public String positional(int i){
+        return positional.get(i);
+    }
+
+    public boolean hasOption(String name){
+        return options.containsKey(name);
+    }
+
+    public String option(String name, String defaultValue){
+        String v = options.get(name);
+        return v == null || v.isEmpty() ? defaultValue : v;
+    }
+
+    public int intOption(String name, int defaultValue){
+        String v = options.get(name);
+        return v == null || v.isEmpty() ? defaultValue : Integer.parseInt(v);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a commit, with the phase and the offset of the dump committed and the tuples
+ * written in the transaction. Only used through CommitEvents, so the class is never loaded when JFR is missing
+ */
+@Name("com.github.jacopofar.wikipediacategorygraph.Commit")
+@Label("Commit")
+@Category("Wikipedia category graph")
+@Description("A transaction committed while loading the graph or computing the distances")
+class CommitEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Offset")
+    long offset;
+
+    @Label("Tuples")
+    long tuples;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+/**
+ * Creates the JFR commit events when the runtime has the flight recorder (Java 11 or later, or 8u262),
+ * does nothing otherwise. The event is passed around as an Object so the callers don't reference CommitEvent
+ */
+final class CommitEvents {
+    private static final boolean ENABLED = available();
+
+    private CommitEvents(){
+    }
+
+    private static boolean available(){
+        try{
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch(ClassNotFoundException | LinkageError e){
+            return false;
+        }
+    }
+
+    /**
+     * Start timing a commit
+     * @return the event to pass to end(), null if JFR is not available
+     */
+    static Object begin(){
+        if(!ENABLED)
+            return null;
+        CommitEvent event = new CommitEvent();
+        event.begin();
+        return event;
+    }
+
+    static void end(Object event, String phase, long offset, long tuples){
+        if(event == null)
+            return;
+        CommitEvent e = (CommitEvent) event;
+        e.end();
+        if(e.shouldCommit()){
+            e.phase = phase;
+            e.offset = offset;
+            e.tuples = tuples;
+            e.commit();
+        }
+    }
+}
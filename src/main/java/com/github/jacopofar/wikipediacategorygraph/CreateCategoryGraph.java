@@ -15,22 +15,18 @@
  */
 package com.github.jacopofar.wikipediacategorygraph;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.graphdb.schema.Schema;
 
 /**
@@ -38,23 +34,51 @@ import org.neo4j.graphdb.schema.Schema;
  * Both articles and categories are represented as nodes with the "name" and "id" properties, and there are two relationship types:
  * SUBCATEGORY_OF is from a category to one that contains it
  * IN_CATEGORY is from an article node to the containing category
+ * With the --offline-import option the store is written directly by OfflineImport, without transactions and checkpoints
+ * With --metrics-log=file the load metrics are appended to the file as JSON lines, see Metrics
+ * With --link-writers=n the relationships are created by n threads, in transactions of --link-batch relationships,
+ * see ParallelLinkWriter
  */
 public class CreateCategoryGraph {
     public final static Label articleLbl = DynamicLabel.label( "Article" );
     public final static Label categoryLbl = DynamicLabel.label( "Category" );
     public final static  DynamicRelationshipType inCategoryRel = DynamicRelationshipType.withName("IN_CATEGORY");
     public final static DynamicRelationshipType subCategoryOfRel = DynamicRelationshipType.withName("SUBCATEGORY_OF");
+    //the Neo4j 2.1 default, relationships after which a node is stored as dense
+    static final int DENSE_NODE_THRESHOLD = 50;
     public static void main(String args[]) throws FileNotFoundException, IOException{
         
-        if(args.length!=3){
-            System.err.println("wrong usage, expecting 3 arguments: category.sql categorylinks.sql graphfolder");
+        CommandLine cl=new CommandLine(args);
+        if(cl.positional().size()!=3){
+            System.err.println("wrong usage, expecting 3 arguments: category.sql categorylinks.sql graphfolder [--offline-import] [--parsers=n] [--checkpoint=seconds] [--link-writers=n] [--link-batch=n] [--metrics-log=file] [--metrics-interval=seconds]");
+        }
+        String categoryFile=cl.positional(0);
+        String categoryLinksFile=cl.positional(1);
+        String dbFolder=cl.positional(2);
+        int parsers=cl.intOption("parsers", defaultParsers());
+        int linkWriters=cl.intOption("link-writers", 0);
+        int linkBatch=cl.intOption("link-batch", 100000);
+        Metrics.startLog(cl);
+        if(cl.hasOption("offline-import")){
+            if(cl.hasOption("checkpoint")){
+                System.err.println("--offline-import can't be used with --checkpoint, an interrupted batch import can't be resumed");
+                return;
+            }
+            if(!OfflineImport.isNewStore(dbFolder)){
+                System.err.println("--offline-import needs a new or empty graph folder, "+dbFolder+" is not empty and its graph would be duplicated");
+                return;
+            }
+            System.out.println("Importing the graph offline with a batch inserter...");
+            OfflineImport.run(categoryFile, categoryLinksFile, dbFolder, parsers);
+            Metrics.global().stopLog();
+            return;
         }
-        String categoryFile=args[0];
-        String categoryLinksFile=args[1];
-        String dbFolder=args[2];
         System.out.println("Initializing the database...");
         
-        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+        //set explicitly, the parallel link writer has to know when the store makes a node dense
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(dbFolder)
+                .setConfig(GraphDatabaseSettings.dense_node_threshold, String.valueOf(DENSE_NODE_THRESHOLD))
+                .newGraphDatabase();
         
         //there are two kinds of nodes: labels and categories
         
@@ -69,50 +93,48 @@ public class CreateCategoryGraph {
         }
         try ( Transaction tx = graphDb.beginTx()){
             Schema schema = graphDb.schema();
-            //articles and categories have both a name and an ID
-            schema.indexFor(articleLbl).on( "name" ).create();
-            schema.indexFor(categoryLbl).on( "name" ).create();
-            schema.indexFor(articleLbl).on( "ID" ).create();
-            schema.indexFor(categoryLbl).on( "ID" ).create();
+            //articles and categories have both a name and an ID, the indexes exist already when resuming a load
+            if(!schema.getIndexes(categoryLbl).iterator().hasNext()){
+                schema.indexFor(articleLbl).on( "name" ).create();
+                schema.indexFor(categoryLbl).on( "name" ).create();
+                schema.indexFor(articleLbl).on( "ID" ).create();
+                schema.indexFor(categoryLbl).on( "ID" ).create();
+            }
             tx.success();
         }
-        System.out.println("Loading the categories and their IDs...");
-        long lastTime=System.currentTimeMillis();
-        final AtomicInteger done=new AtomicInteger(0);
-        //read the file line by line
-        try(BufferedReader br = new BufferedReader(new FileReader(categoryFile))){
-            br.lines().parallel().forEach(line->{
-                //while((line=br.readLine())!=null){
-                //pick the lines containing inserts, not comments or DDL
-                if(!line.startsWith("INSERT INTO ") || line.length()<2)
-                    return;
-                
-                try ( Transaction tx = graphDb.beginTx()){
-                    //split values in single inserts, in the form
-                    //(2,'Unprintworthy_redirects',1102027,15,0)
-                    //where the first values are the ID and the category name (the others the number of articles, subcategories and files)
-                    //the awkward regular expressions matches the numbers between values so strange article titles do not break the splitting
-                    //Arrays.stream(line.split("[0-9]\\),\\((?=[0-9])")).forEach(v->System.out.println("   "+v));
-                    Arrays.stream(line.split("[0-9]\\),\\((?=[0-9])"))
-                            .filter(v->!v.startsWith("INSERT INTO"))
-                            .forEach(category->{
-                                String name=category.replaceAll(".+[0-9],'", "").replaceAll("',[0-9]+.+", "");
-                                int ID=Integer.parseInt(category.replaceAll(",'.+", ""));
-                                if(isInternalCategory(name))
-                                    return;
-                                
-                                Node cat = graphDb.createNode(categoryLbl);
-                                cat.setProperty("name", name);
-                                cat.setProperty("ID", ID);
-                                //System.out.println(name+" --> "+ID);
-                                if(done.incrementAndGet()%100000==0)
-                                    System.out.println(" - loaded "+done.get()+" categories");
-                            });
-                    
-                    tx.success();
+        try(TransactionalGraphWriter writer=new TransactionalGraphWriter(graphDb)){
+            CategoryGraphLoader loader=new CategoryGraphLoader(writer, parsers);
+            int checkpointInterval=cl.intOption("checkpoint", 300);
+            if(checkpointInterval>0)
+                loader.enableCheckpoints(new File(dbFolder, "load.checkpoint"), checkpointInterval*1000L);
+            String phase=writer.getPhase();
+            if(phase==null){
+                System.out.println("Loading the categories and their IDs...");
+                loader.loadCategories(categoryFile);
+                System.out.println("Loading the subcategory edges");
+                loadLinks(loader, categoryLinksFile, graphDb, linkWriters, linkBatch, dbFolder);
+            }
+            else if(phase.equals(CategoryGraphLoader.DONE))
+                System.out.println("The graph was already loaded");
+            else if(checkpointInterval<=0)
+                System.err.println("the store contains an interrupted load, it can be resumed only with checkpoints enabled");
+            else{
+                System.out.println("Resuming an interrupted load, waiting for the indexes...");
+                graphDb.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+                long offset=loader.resume(writer, categoryFile, categoryLinksFile, phase, writer.getOffset());
+                if(phase.equals(CategoryGraphLoader.CATEGORIES)){
+                    loader.loadCategories(categoryFile, offset);
+                    loadLinks(loader, categoryLinksFile, graphDb, linkWriters, linkBatch, dbFolder);
                 }
-            });
-            System.out.println("Loaded "+done.get()+" categories in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+                else if(phase.equals(CategoryGraphLoader.PARALLEL_LINKS)){
+                    System.out.println("Deleting the links of the interrupted parallel link phase...");
+                    loader.deleteParallelLinks(graphDb, linkBatch);
+                    //the sequential load can be resumed again from its own checkpoints
+                    loader.loadLinks(categoryLinksFile);
+                }
+                else
+                    loader.loadLinks(categoryLinksFile, offset);
+            }
         }
         
         System.out.println("waiting up to 2 minutes for the names and ID indexes to be online...");
@@ -120,103 +142,48 @@ public class CreateCategoryGraph {
             Schema schema = graphDb.schema();
             schema.awaitIndexesOnline(2, TimeUnit.MINUTES);
         }
-        done.set(0);
-        final AtomicInteger doneCats=new AtomicInteger(0);
-        final AtomicInteger doneArts=new AtomicInteger(0);
-        
-        lastTime=System.currentTimeMillis();
-        
-        System.out.println("Loading the subcategory edges");
-        try(BufferedReader br = new BufferedReader(new FileReader(categoryLinksFile))){
-            final ConcurrentHashMap <Integer,Long>articleNodes=new ConcurrentHashMap<>(5000);
-            br.lines().forEach(line->{
-                //pick the lines containing inserts, not comments or DDL
-                if(!line.startsWith("INSERT INTO ") || line.length()<2)
-                    return;
-                
-                try ( Transaction tx = graphDb.beginTx()){
-                    //split values in single inserts, in the form
-                    //(cl_from,cl_to,sortkey,...)
-                    //where the first value is the ID of the sub-category or article,
-                    //the second is the name of the containing category
-                    //and the third is the uppercase normalized name of the article or category
-                    Arrays.stream(line.split("'\\),\\((?=[0-9])"))
-                            
-                            .filter(v->!v.startsWith("INSERT INTO"))
-                            .forEach(edge->{
-                                if(edge.endsWith("','file")){
-                                    return;
-                                }
-                                int ID=Integer.parseInt(edge.split(",")[0]);
-                                String catname=edge.replaceAll("[0-9]+,'", "").replaceAll("',.+", "");
-                                ResourceIterator<Node> matches = graphDb.findNodesByLabelAndProperty(categoryLbl, "name", catname).iterator();
-                                
-                                if(!matches.hasNext()){
-                                    matches.close();
-                                    return;
-                                }
-                                //System.out.println(edge);
-                                
-                                Node container = matches.next();
-                                matches.close();
-                                if(edge.endsWith("'page")||edge.endsWith("'page');")){
-                                    Node article=null;
-                                    //if the article was in the map, use it, otherwise create it and put it into the map
-                                    //we can't use the index of Neo4j because it's eventually consistent
-                                    if(articleNodes.containsKey(ID)){
-                                        article=graphDb.getNodeById(articleNodes.get(ID));
-                                    }
-                                    else{
-                                        article=graphDb.createNode(articleLbl);
-                                        article.setProperty("ID", ID);
-                                        article.setProperty("name", edge.replace(catname, "EEE").replaceAll(".+EEE',", "").replaceAll("',.+", ""));
-                                        articleNodes.put(ID, article.getId());
-                                    }
-                                    doneArts.incrementAndGet();
-                                    
-                                    article.createRelationshipTo(container,inCategoryRel );
-                                    if(done.incrementAndGet()%100000==0)
-                                        System.out.println(" - parsed "+done.get()+" edges ("+doneArts.get()+" articles and "+doneCats.get()+" categories so far)");
-                                    return;
-                                }
-                                if(edge.endsWith("'subcat")){
-                                    //if the subcategory was stored, is already indexed
-                                    matches = graphDb.findNodesByLabelAndProperty(categoryLbl, "ID", ID).iterator();
-                                    if(!matches.hasNext()){
-                                        matches.close();
-                                        return;
-                                    }
-                                    doneCats.incrementAndGet();
-                                    
-                                    matches.next().createRelationshipTo(container, subCategoryOfRel);
-                                    matches.close();
-                                    if(done.incrementAndGet()%100000==0)
-                                        System.out.println(" - parsed "+done.get()+" edges ("+doneArts.get()+" articles and "+doneCats.get()+" categories so far)");
-                                    return;
-                                }
-                                if(done.incrementAndGet()%100000==0)
-                                    System.out.println(" - parsed "+done.get()+" edges ("+doneArts.get()+" articles and "+doneCats.get()+" categories so far)");
-                                
-                                
-                            });
-                    tx.success();
-                }
-            });
-            
-        }
-        System.out.println("Loaded "+done.get()+" edges ("+doneArts.get()+" articles and "+doneCats.get()+" categories) in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
         graphDb.shutdown();
-        
-        
+        Metrics.global().stopLog();
+    }
+    
+    /**
+     * Load the links sequentially, or with the parallel writer if there are link writers
+     */
+    private static void loadLinks(CategoryGraphLoader loader, String categoryLinksFile, GraphDatabaseService graphDb, int linkWriters, int linkBatch, String dbFolder) throws IOException{
+        if(linkWriters>0)
+            loader.loadLinksParallel(categoryLinksFile, graphDb, linkWriters, linkBatch, DENSE_NODE_THRESHOLD, new File(dbFolder));
+        else
+            loader.loadLinks(categoryLinksFile);
     }
     
-    private static boolean isInternalCategory(String name) {
-        if(name.startsWith("Wikipedia_articles_")) return true;
-        if(name.startsWith("Suspected_Wikipedia_sockpuppets")) return true;
-        if(name.startsWith("Articles_with_")) return true;
-        if(name.startsWith("Redirects_")) return true;
-        if(name.startsWith("WikiProject_")) return true;
-        if(name.startsWith("Articles_needing_")) return true;
-        return name.startsWith("Wikipedians_");
+    /**
+     * By default all the cores but the ones of the reader and the writer parse the dumps
+     */
+    static int defaultParsers(){
+        return Math.max(1, Runtime.getRuntime().availableProcessors()-2);
+    }
+    
+    static final byte[] PAGE = "page".getBytes();
+    static final byte[] SUBCAT = "subcat".getBytes();
+    static final byte[] FILE = "file".getBytes();
+    private static final byte[][] INTERNAL_PREFIXES = {
+        "Wikipedia_articles_".getBytes(),
+        "Suspected_Wikipedia_sockpuppets".getBytes(),
+        "Articles_with_".getBytes(),
+        "Redirects_".getBytes(),
+        "WikiProject_".getBytes(),
+        "Articles_needing_".getBytes(),
+        "Wikipedians_".getBytes()
+    };
+    
+    /**
+     * Tells whether the given tuple field is the name of a maintenance category, without decoding it
+     */
+    static boolean isInternalCategory(SqlTuple tuple, int field) {
+        for(byte[] prefix:INTERNAL_PREFIXES){
+            if(tuple.startsWith(field, prefix))
+                return true;
+        }
+        return false;
     }
 }
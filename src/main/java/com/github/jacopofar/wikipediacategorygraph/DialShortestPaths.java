@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Label setting computation of the category distances, using Dial's algorithm.
+ * Edge costs are small integers (1 going to a sub-category, 3 going to a container) so the queue is
+ * a circular array of 4 buckets, one per distance modulo 4, and each category is settled exactly once.
+ * An instance is not thread safe, but can be reused for several sources on the same graph.
+ */
+public class DialShortestPaths {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    public static final int DOWN_COST = 1;
+    public static final int UP_COST = 3;
+    private static final int BUCKETS = UP_COST + 1;
+
+    private final CategoryAdjacency graph;
+    private final IntStack[] buckets = new IntStack[BUCKETS];
+    private int[] distances;
+    private boolean[] settled;
+    private int current;
+    private long settledCount;
+    private long relaxations;
+    private final IntConsumer relaxDown = w -> relax(w, current + DOWN_COST);
+    private final IntConsumer relaxUp = w -> relax(w, current + UP_COST);
+
+    public DialShortestPaths(CategoryAdjacency graph){
+        this.graph = graph;
+        for(int i = 0; i < BUCKETS; i++)
+            buckets[i] = new IntStack();
+    }
+
+    /**
+     * Compute the distance of each category from the given ones, which have distance 0.
+     * Unreachable categories have distance UNREACHABLE
+     */
+    public int[] run(int... sources){
+        int n = graph.nodeCount();
+        distances = new int[n];
+        Arrays.fill(distances, UNREACHABLE);
+        settled = new boolean[n];
+        settledCount = 0;
+        relaxations = 0;
+        for(int s:sources){
+            distances[s] = 0;
+            buckets[0].push(s);
+        }
+        current = 0;
+        int empty = 0;
+        //stop when a whole round of buckets is empty
+        while(empty < BUCKETS){
+            IntStack bucket = buckets[current % BUCKETS];
+            if(bucket.isEmpty()){
+                empty++;
+                current++;
+                continue;
+            }
+            empty = 0;
+            int v = bucket.pop();
+            //stale entry, the node was reached with a lower distance before
+            if(settled[v] || distances[v] != current)
+                continue;
+            settled[v] = true;
+            settledCount++;
+            graph.forEachContained(v, relaxDown);
+            graph.forEachContainer(v, relaxUp);
+        }
+        return distances;
+    }
+
+    private void relax(int w, int d){
+        relaxations++;
+        if(d < distances[w]){
+            distances[w] = d;
+            buckets[d % BUCKETS].push(w);
+        }
+    }
+
+    /**
+     * @return the number of categories settled by the last run
+     */
+    public long getSettledCount(){
+        return settledCount;
+    }
+
+    /**
+     * @return the number of edges examined by the last run
+     */
+    public long getRelaxations(){
+        return relaxations;
+    }
+
+    /**
+     * Growable stack of ints, used as a bucket
+     */
+    static class IntStack {
+        private int[] items = new int[1024];
+        private int size = 0;
+
+        void push(int v){
+            if(size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+
+        int pop(){
+            return items[--size];
+        }
+
+        boolean isEmpty(){
+            return size == 0;
+        }
+    }
+}
@@ -29,10 +29,17 @@ public class DistanceLabel {
     private final String category;
     private final int distance;
     private final Node node;
+    //the property storing the distance, built once per category and shared by the labels
+    private final String property;
     public DistanceLabel(Node cat,String category,int distance){
+        this(cat,category,distance,"distance_"+category);
+    }
+    
+    private DistanceLabel(Node cat,String category,int distance,String property){
         this.category=category;
         this.distance=distance;
         this.node=cat;
+        this.property=property;
     }
     
     
@@ -58,13 +65,28 @@ public class DistanceLabel {
      * Returns true if the property wasn't present or was present with a greater distance, false otherwise
      */
     boolean mark() {
-        int dist = (int) node.getProperty("distance_"+category, Integer.MAX_VALUE);
+        int dist = (int) node.getProperty(property, Integer.MAX_VALUE);
         if(dist>distance){
-            node.setProperty("distance_"+category, distance);
+            node.setProperty(property, distance);
             return true;
         }
         return false;
     }
+    /**
+     * Like mark(), but returns true also when the node has already this distance.
+     * Used when an iteration is repeated after a crash, since some of its marks may have been committed
+     */
+    boolean markAtMost() {
+        int dist = (int) node.getProperty(property, Integer.MAX_VALUE);
+        if(dist>distance)
+            node.setProperty(property, distance);
+        return dist>=distance;
+    }
+    
+    Node getNode() {
+        return node;
+    }
+    
     /**
      * Return the categories contained in the marked one
      */
@@ -80,7 +102,7 @@ public class DistanceLabel {
      * Return a Distance Label with the same label, the given node and a distance increased of i
      */
     DistanceLabel stepOf(Node contained, int i) {
-        return new DistanceLabel(contained,category,distance+i);
+        return new DistanceLabel(contained,category,distance+i,property);
     }
     /**
      * Return the categories containing the marked one
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read only lookup of the distance vector of a category or article by name, from a binary DistanceTable
+ * written by CalculateCategoryDistances (--output) or AssignArticles, mapped in memory.
+ *
+ * Names are resolved by binary search over the rows sorted by their UTF-8 bytes. The sorted order is kept in
+ * a sidecar file, tablefile.index, built at the first opening and rebuilt when the table changes, so later
+ * openings only map the two files. The most recent lookups are kept in a LRU cache, including the misses.
+ * Lookups are thread safe.
+ */
+public class DistanceLookup {
+    private static final int INDEX_MAGIC = 0x57434749;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final Entry MISSING = new Entry(null, -1, null);
+
+    private final DistanceTableFile table;
+    private final String[] sources;
+    private final int[] sorted;
+    private final MappedFile index;
+    private final Map<String,Entry> cache;
+    private final Metrics.Counter hits = Metrics.global().counter("lookup.cacheHits");
+    private final Metrics.Counter misses = Metrics.global().counter("lookup.cacheMisses");
+
+    /**
+     * The distances of a row, with the index of the nearest source
+     */
+    public static class Entry {
+        private final String name;
+        private final int row;
+        private final int[] distances;
+
+        Entry(String name, int row, int[] distances){
+            this.name = name;
+            this.row = row;
+            this.distances = distances;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public int getRow(){
+            return row;
+        }
+
+        /**
+         * The distance from each source, DistanceTable.UNREACHABLE (-1) if not reachable. Don't modify it, it's shared
+         */
+        public int[] getDistances(){
+            return distances;
+        }
+
+        /**
+         * @return the index of the source at the lowest distance, the first one in case of ties, -1 if none is reachable
+         */
+        public int nearest(){
+            int best = -1;
+            for(int s = 0; s < distances.length; s++)
+                if(distances[s] != DistanceTable.UNREACHABLE && (best < 0 || distances[s] < distances[best]))
+                    best = s;
+            return best;
+        }
+
+        /**
+         * @return the distance from the nearest source, which is the score of the assignment of an article, -1 if none is reachable
+         */
+        public int score(){
+            int nearest = nearest();
+            return nearest < 0 ? DistanceTable.UNREACHABLE : distances[nearest];
+        }
+    }
+
+    private DistanceLookup(String tableFile, int cacheSize) throws IOException{
+        table = DistanceTableFile.open(tableFile);
+        sources = table.getSources();
+        File indexFile = new File(tableFile + ".index");
+        File source = new File(tableFile);
+        int[] order = null;
+        if(!validIndex(indexFile, source)){
+            long startTime = System.currentTimeMillis();
+            int[] rows = sortRows(table);
+            try{
+                Checkpoints.save(indexFile, INDEX_MAGIC, out -> {
+                    out.writeInt(rows.length);
+                    out.writeLong(source.length());
+                    out.writeLong(source.lastModified());
+                    for(int r:rows)
+                        out.writeInt(r);
+                });
+                System.out.println("Name index of " + rows.length + " rows written to " + indexFile + " in " + (System.currentTimeMillis() - startTime) + "ms");
+            }
+            catch(IOException e){
+                //a read only folder, the index is kept in memory
+                System.err.println("cannot write the name index " + indexFile + ": " + e);
+                order = rows;
+            }
+        }
+        sorted = order;
+        index = order == null ? new MappedFile(indexFile.getPath()) : null;
+        cache = createCache(cacheSize);
+    }
+
+    /**
+     * Open a table, with a cache of the given number of entries (0 disables it)
+     */
+    public static DistanceLookup open(String tableFile, int cacheSize) throws IOException{
+        return new DistanceLookup(tableFile, cacheSize);
+    }
+
+    private static Map<String,Entry> createCache(int size){
+        if(size <= 0)
+            return null;
+        return new LinkedHashMap<String,Entry>(Math.min(size, 1 << 16), 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest){
+                return size() > size;
+            }
+        };
+    }
+
+    private boolean validIndex(File indexFile, File source) throws IOException{
+        try(DataInputStream in = Checkpoints.open(indexFile, INDEX_MAGIC)){
+            return in != null && in.readInt() == table.rowCount() && in.readLong() == source.length() && in.readLong() == source.lastModified();
+        }
+        catch(IOException e){
+            System.err.println("ignoring the invalid name index " + indexFile + ": " + e);
+            return false;
+        }
+    }
+
+    public String[] getSources(){
+        return sources.clone();
+    }
+
+    public int rowCount(){
+        return table.rowCount();
+    }
+
+    private int sortedRow(int i){
+        return index == null ? sorted[i] : index.getInt(INDEX_HEADER_SIZE + 4L * i);
+    }
+
+    /**
+     * @return the row with the given name, -1 if there is none
+     */
+    public int find(String name){
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = table.rowCount() - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int c = table.compareName(sortedRow(mid), key);
+            if(c < 0)
+                low = mid + 1;
+            else if(c > 0)
+                high = mid - 1;
+            else
+                return sortedRow(mid);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the distances of the row with the given name, null if there is none
+     */
+    public Entry get(String name){
+        if(cache != null){
+            Entry e;
+            synchronized(cache){
+                e = cache.get(name);
+            }
+            if(e != null){
+                hits.increment();
+                return e == MISSING ? null : e;
+            }
+            misses.increment();
+        }
+        int row = find(name);
+        Entry e = MISSING;
+        if(row >= 0){
+            int[] distances = new int[sources.length];
+            table.row(row, distances, 0);
+            e = new Entry(name, row, distances);
+        }
+        if(cache != null){
+            synchronized(cache){
+                cache.put(name, e);
+            }
+        }
+        return e == MISSING ? null : e;
+    }
+
+    /**
+     * Sort the row numbers by name, comparing the UTF-8 bytes
+     */
+    static int[] sortRows(DistanceTableFile table){
+        byte[][] names = new byte[table.rowCount()][];
+        Integer[] rows = new Integer[names.length];
+        for(int i = 0; i < names.length; i++){
+            names[i] = table.nameBytes(i);
+            rows[i] = i;
+        }
+        Arrays.sort(rows, (a, b) -> compare(names[a], names[b]));
+        int[] order = new int[rows.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = rows[i];
+        return order;
+    }
+
+    private static int compare(byte[] a, byte[] b){
+        int common = Math.min(a.length, b.length);
+        for(int i = 0; i < common; i++){
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if(c != 0)
+                return c;
+        }
+        return a.length - b.length;
+    }
+}
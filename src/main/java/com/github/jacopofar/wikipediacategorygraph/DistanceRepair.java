@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.DOWN_COST;
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.UNREACHABLE;
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.UP_COST;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Updates the distances from a source after some SUBCATEGORY_OF edges were added and removed,
+ * visiting only the region of the graph whose distances can change.
+ *
+ * The graph is the updated one, the distances are the ones computed before the change, with the same numbering.
+ * First the removals: a category is affected when no shortest path reaches it anymore, that is when none of its
+ * neighbors in the graph without the added edges is unaffected and gives it the same distance. The candidates
+ * are the endpoints of the removed edges and the neighbors of the affected categories whose distance came from them,
+ * checked in increasing distance order so the neighbors they depend on are already decided.
+ * Then the affected categories get the best distance offered by their neighbors, the endpoints of the added edges
+ * the distance offered by the new edge, and these improvements are propagated in distance order as in Dijkstra.
+ * Categories added with the update have no previous distance, they are reached through their new edges.
+ * An instance is not thread safe, but can repair the distances of many sources.
+ */
+public class DistanceRepair {
+    private final CategoryAdjacency graph;
+    private final int[] addedSub;
+    private final int[] addedContainer;
+    private final int[] removedSub;
+    private final int[] removedContainer;
+    private final HashSet<Long> added = new HashSet<>();
+
+    private int[] distances;
+    private boolean[] affected;
+    private final ArrayList<DialShortestPaths.IntStack> queue = new ArrayList<>();
+    private int current;
+    private int v;
+    private boolean supported;
+    private long affectedCount;
+    private long changedCount;
+
+    private final IntConsumer checkContainer = u -> {
+        if(!supported && !affected[u] && distances[u] != UNREACHABLE && distances[u] + DOWN_COST == distances[v] && !isAdded(v, u))
+            supported = true;
+    };
+    private final IntConsumer checkContained = u -> {
+        if(!supported && !affected[u] && distances[u] != UNREACHABLE && distances[u] + UP_COST == distances[v] && !isAdded(u, v))
+            supported = true;
+    };
+    private final IntConsumer candidateContained = x -> {
+        if(distances[x] == distances[v] + DOWN_COST && !isAdded(x, v))
+            push(x, distances[x]);
+    };
+    private final IntConsumer candidateContainer = x -> {
+        if(distances[x] == distances[v] + UP_COST && !isAdded(v, x))
+            push(x, distances[x]);
+    };
+    private final IntConsumer offerFromContainer = u -> offer(v, u, DOWN_COST);
+    private final IntConsumer offerFromContained = u -> offer(v, u, UP_COST);
+    private final IntConsumer relaxDown = x -> relax(x, distances[v] + DOWN_COST);
+    private final IntConsumer relaxUp = x -> relax(x, distances[v] + UP_COST);
+
+    /**
+     * @param graph the graph after the update
+     * @param addedSub the sub-category of each added edge
+     * @param addedContainer the container of each added edge
+     * @param removedSub the sub-category of each removed edge, -1 if the category was removed too
+     * @param removedContainer the container of each removed edge, -1 if the category was removed too
+     */
+    public DistanceRepair(CategoryAdjacency graph, int[] addedSub, int[] addedContainer, int[] removedSub, int[] removedContainer){
+        this.graph = graph;
+        this.addedSub = addedSub;
+        this.addedContainer = addedContainer;
+        this.removedSub = removedSub;
+        this.removedContainer = removedContainer;
+        for(int i = 0; i < addedSub.length; i++)
+            added.add(edgeKey(addedSub[i], addedContainer[i]));
+    }
+
+    private static long edgeKey(int sub, int container){
+        return ((long) sub << 32) | (container & 0xffffffffL);
+    }
+
+    private boolean isAdded(int sub, int container){
+        return !added.isEmpty() && added.contains(edgeKey(sub, container));
+    }
+
+    /**
+     * Update in place the distances from the given source, UNREACHABLE for the categories not reached.
+     * When the source is missing all the distances become UNREACHABLE, when it had no distance 0
+     * (a new category) they are computed from scratch with DialShortestPaths
+     */
+    public void repair(int[] distances, int source){
+        affectedCount = 0;
+        changedCount = 0;
+        if(source < 0){
+            for(int i = 0; i < distances.length; i++)
+                if(distances[i] != UNREACHABLE)
+                    changedCount++;
+            Arrays.fill(distances, UNREACHABLE);
+            return;
+        }
+        if(distances[source] != 0){
+            int[] computed = new DialShortestPaths(graph).run(source);
+            for(int i = 0; i < distances.length; i++)
+                if(distances[i] != computed[i])
+                    changedCount++;
+            System.arraycopy(computed, 0, distances, 0, distances.length);
+            affectedCount = distances.length;
+            return;
+        }
+        this.distances = distances;
+        this.affected = new boolean[distances.length];
+        int[] old = distances.clone();
+        ArrayList<Integer> lost = findAffected(source);
+        for(int a:lost)
+            distances[a] = UNREACHABLE;
+        for(int a:lost){
+            v = a;
+            graph.forEachContainer(a, offerFromContainer);
+            graph.forEachContained(a, offerFromContained);
+        }
+        for(int i = 0; i < addedSub.length; i++){
+            offer(addedSub[i], addedContainer[i], DOWN_COST);
+            offer(addedContainer[i], addedSub[i], UP_COST);
+        }
+        propagate();
+        for(int i = 0; i < distances.length; i++)
+            if(distances[i] != old[i])
+                changedCount++;
+        this.distances = null;
+        this.affected = null;
+    }
+
+    /**
+     * Mark the categories no longer reached by a shortest path, in the graph without the added edges
+     */
+    private ArrayList<Integer> findAffected(int source){
+        ArrayList<Integer> lost = new ArrayList<>();
+        current = 0;
+        for(int i = 0; i < removedSub.length; i++){
+            int s = removedSub[i];
+            int c = removedContainer[i];
+            //the edge was the step from c down to s, or from s up to c
+            if(s >= 0 && distances[s] != UNREACHABLE && (c < 0 || distances[c] != UNREACHABLE && distances[c] + DOWN_COST == distances[s]))
+                push(s, distances[s]);
+            if(c >= 0 && distances[c] != UNREACHABLE && (s < 0 || distances[s] != UNREACHABLE && distances[s] + UP_COST == distances[c]))
+                push(c, distances[c]);
+        }
+        boolean[] checked = new boolean[distances.length];
+        while((v = pop()) >= 0){
+            if(checked[v] || v == source)
+                continue;
+            checked[v] = true;
+            supported = false;
+            graph.forEachContainer(v, checkContainer);
+            graph.forEachContained(v, checkContained);
+            if(supported)
+                continue;
+            affected[v] = true;
+            lost.add(v);
+            graph.forEachContained(v, candidateContained);
+            graph.forEachContainer(v, candidateContainer);
+        }
+        affectedCount = lost.size();
+        return lost;
+    }
+
+    /**
+     * Offer to the category the distance of the neighbor plus the cost of the step
+     */
+    private void offer(int to, int from, int cost){
+        if(distances[from] != UNREACHABLE)
+            relax(to, distances[from] + cost);
+    }
+
+    private void relax(int x, int d){
+        if(d < distances[x]){
+            distances[x] = d;
+            push(x, d);
+        }
+    }
+
+    private void propagate(){
+        current = 0;
+        while((v = pop()) >= 0){
+            //stale entry, the category was improved again after being queued
+            if(distances[v] != current)
+                continue;
+            graph.forEachContained(v, relaxDown);
+            graph.forEachContainer(v, relaxUp);
+        }
+    }
+
+    /**
+     * Queue a category with the given distance, never lower than the last one popped
+     */
+    private void push(int x, int d){
+        while(queue.size() <= d)
+            queue.add(new DialShortestPaths.IntStack());
+        queue.get(d).push(x);
+        current = Math.min(current, d);
+    }
+
+    /**
+     * @return the category with the lowest distance in the queue, -1 if it's empty
+     */
+    private int pop(){
+        while(current < queue.size()){
+            DialShortestPaths.IntStack bucket = queue.get(current);
+            if(!bucket.isEmpty())
+                return bucket.pop();
+            current++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of categories affected by the removals in the last repair
+     */
+    public long getAffectedCount(){
+        return affectedCount;
+    }
+
+    /**
+     * @return the number of distances changed by the last repair
+     */
+    public long getChangedCount(){
+        return changedCount;
+    }
+}
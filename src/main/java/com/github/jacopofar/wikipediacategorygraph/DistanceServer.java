@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP endpoint over a DistanceLookup.
+ *
+ * Usage: tablefile [--port=8080] [--threads=n] [--cache=entries]
+ * GET /distance?name=Some_article returns the JSON object of the name, with the nearest source, its distance
+ * (the score) and the distance from each source, or 404 if the name is not in the table.
+ * POST /distances with a name per line returns a JSON object per line, in the same order, null for missing names.
+ * GET /sources returns the list of sources.
+ * Spaces in the names are replaced by underscores, as in the dumps.
+ */
+public class DistanceServer {
+    private final DistanceLookup lookup;
+    private final String[] sources;
+    private final Metrics.Counter requests = Metrics.global().counter("lookup.requests");
+    private final Metrics.Histogram latency = Metrics.global().histogram("lookup.latency");
+
+    public DistanceServer(DistanceLookup lookup){
+        this.lookup = lookup;
+        this.sources = lookup.getSources();
+    }
+
+    public static void main(String args[]) throws IOException{
+        CommandLine cl = new CommandLine(args);
+        if(cl.positional().size() != 1){
+            System.err.println("wrong usage, expecting: tablefile [--port=8080] [--threads=n] [--cache=entries]");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        DistanceLookup lookup = DistanceLookup.open(cl.positional(0), cl.intOption("cache", 100000));
+        System.out.println(lookup.rowCount() + " rows opened in " + (System.currentTimeMillis() - startTime) + "ms");
+        HttpServer server = new DistanceServer(lookup).start(cl.intOption("port", 8080), cl.intOption("threads", Runtime.getRuntime().availableProcessors()));
+        System.out.println("Listening on port " + server.getAddress().getPort());
+    }
+
+    /**
+     * Start serving on the given port with a pool of threads, port 0 chooses a free one
+     */
+    public HttpServer start(int port, int threads) throws IOException{
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.createContext("/distance", exchange -> {
+            long startTime = System.nanoTime();
+            String name;
+            try{
+                name = parameter(exchange.getRequestURI().getRawQuery(), "name");
+            }
+            catch(IllegalArgumentException ex){
+                //a malformed % escape
+                send(exchange, 400, "{\"error\":\"malformed query\"}");
+                requests.increment();
+                latency.since(startTime);
+                return;
+            }
+            DistanceLookup.Entry e = name == null ? null : lookup.get(name.replace(' ', '_'));
+            if(name == null)
+                send(exchange, 400, "{\"error\":\"missing name parameter\"}");
+            else if(e == null)
+                send(exchange, 404, "{\"error\":\"not found\"}");
+            else
+                send(exchange, 200, toJson(e));
+            requests.increment();
+            latency.since(startTime);
+        });
+        server.createContext("/distances", exchange -> {
+            if(!exchange.getRequestMethod().equals("POST")){
+                send(exchange, 405, "{\"error\":\"expecting a POST with a name per line\"}");
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))){
+                String name;
+                while((name = in.readLine()) != null){
+                    long startTime = System.nanoTime();
+                    DistanceLookup.Entry e = lookup.get(name.replace(' ', '_'));
+                    sb.append(e == null ? "null" : toJson(e)).append('\n');
+                    requests.increment();
+                    latency.since(startTime);
+                }
+            }
+            send(exchange, 200, sb.toString());
+        });
+        server.createContext("/sources", exchange -> {
+            StringBuilder sb = new StringBuilder("[");
+            for(int s = 0; s < sources.length; s++)
+                sb.append(s == 0 ? "" : ",").append(jsonString(sources[s]));
+            send(exchange, 200, sb.append(']').toString());
+        });
+        server.start();
+        return server;
+    }
+
+    String toJson(DistanceLookup.Entry e){
+        int[] d = e.getDistances();
+        int nearest = e.nearest();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"name\":").append(jsonString(e.getName()));
+        sb.append(",\"nearest\":").append(nearest < 0 ? "null" : jsonString(sources[nearest]));
+        sb.append(",\"score\":").append(nearest < 0 ? "null" : Integer.toString(e.score()));
+        sb.append(",\"distances\":{");
+        for(int s = 0; s < d.length; s++){
+            if(s > 0)
+                sb.append(',');
+            sb.append(jsonString(sources[s])).append(':').append(d[s] == DistanceTable.UNREACHABLE ? "null" : Integer.toString(d[s]));
+        }
+        return sb.append("}}").toString();
+    }
+
+    static String jsonString(String s){
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if(c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * @return the decoded value of the first parameter with the given name in the raw query, null if missing
+     * @throws IllegalArgumentException if the value contains a malformed escape
+     */
+    static String parameter(String query, String name) throws IOException{
+        if(query == null)
+            return null;
+        for(String p:query.split("&")){
+            int eq = p.indexOf('=');
+            if(eq > 0 && p.substring(0, eq).equals(name))
+                return URLDecoder.decode(p.substring(eq + 1), "UTF-8");
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException{
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, b.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(b);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+/**
+ * The distances of a set of rows (categories or articles) from the macro-categories, kept in memory or produced on demand.
+ * Can be written as a CSV file or as a flat binary file, which can be mapped in memory with DistanceTableFile.
+ *
+ * The binary file has a fixed header (magic, version, number of sources and rows, positions of the
+ * sections), the source names, the distance matrix row by row as ints, with -1 for unreachable,
+ * the offset of each row name and the UTF-8 row names.
+ */
+public class DistanceTable {
+    static final int MAGIC = 0x57434744;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int UNREACHABLE = -1;
+
+    private final String[] sources;
+    private final IntFunction<String> names;
+    private final int rowCount;
+    private final IntFunction<int[]> rows;
+
+    /**
+     * @param sources the macro-categories
+     * @param names the name of each row
+     * @param distances the element [i][s] is the distance of row i from sources[s], DialShortestPaths.UNREACHABLE if not reachable
+     */
+    public DistanceTable(String[] sources, IntFunction<String> names, int[][] distances){
+        this(sources, names, distances.length, i -> distances[i]);
+    }
+
+    /**
+     * A table whose rows are produced when written, so they don't need to be all in memory
+     * @param rows the distances of a row from the sources, as in the matrix of the other constructor
+     */
+    public DistanceTable(String[] sources, IntFunction<String> names, int rowCount, IntFunction<int[]> rows){
+        this.sources = sources;
+        this.names = names;
+        this.rowCount = rowCount;
+        this.rows = rows;
+    }
+
+    public String[] getSources(){
+        return sources;
+    }
+
+    public int rowCount(){
+        return rowCount;
+    }
+
+    public int[] row(int i){
+        return rows.apply(i);
+    }
+
+    public String name(int i){
+        return names.apply(i);
+    }
+
+    /**
+     * Write the table as CSV if the file name ends with .csv, in the binary format otherwise
+     */
+    public void write(String file) throws IOException{
+        if(file.endsWith(".csv"))
+            writeCsv(file);
+        else
+            writeBinary(file);
+    }
+
+    /**
+     * Write a CSV file with a name column and a column per source, unreachable distances are left empty
+     */
+    public void writeCsv(String file) throws IOException{
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20)){
+            out.write("name");
+            for(String s:sources)
+                out.append(',').append(csvField(s));
+            out.write('\n');
+            for(int i = 0; i < rowCount; i++){
+                out.write(csvField(names.apply(i)));
+                for(int d:rows.apply(i)){
+                    out.write(',');
+                    if(d != DialShortestPaths.UNREACHABLE)
+                        out.write(Integer.toString(d));
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    static String csvField(String s){
+        if(s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    public void writeBinary(String file) throws IOException{
+        try(BinaryWriter out = new BinaryWriter(file, sources, rowCount)){
+            for(int i = 0; i < rowCount; i++)
+                out.add(names.apply(i), rows.apply(i), 0);
+        }
+    }
+
+    /**
+     * Writes a binary distance table one row at a time, so the rows don't need to be all in memory.
+     * The number of rows must be known in advance, the names are kept in a temporary file until closing
+     */
+    public static class BinaryWriter implements AutoCloseable {
+        private final DataOutputStream out;
+        private final File namesTemp;
+        private final DataOutputStream names;
+        private final long[] nameOffsets;
+        private final int sources;
+        private int rows = 0;
+
+        public BinaryWriter(String file, String[] sourceNames, int rowCount) throws IOException{
+            byte[][] encoded = new byte[sourceNames.length][];
+            long sourcesSize = 0;
+            for(int s = 0; s < sourceNames.length; s++){
+                encoded[s] = sourceNames[s].getBytes(StandardCharsets.UTF_8);
+                sourcesSize += 4 + encoded[s].length;
+            }
+            sources = sourceNames.length;
+            long matrix = HEADER_SIZE + sourcesSize;
+            long offsets = matrix + 4L * rowCount * sources;
+            long nameBytes = offsets + 8L * (rowCount + 1);
+            nameOffsets = new long[rowCount + 1];
+            namesTemp = File.createTempFile("distances", ".names", new File(file).getAbsoluteFile().getParentFile());
+            names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesTemp), 1 << 20));
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sources);
+            out.writeInt(rowCount);
+            out.writeLong(matrix);
+            out.writeLong(offsets);
+            out.writeLong(nameBytes);
+            for(byte[] s:encoded){
+                out.writeInt(s.length);
+                out.write(s);
+            }
+        }
+
+        /**
+         * Add a row, whose distances are in the array starting at the given offset.
+         * Distances equal to DialShortestPaths.UNREACHABLE are stored as -1
+         */
+        public void add(String name, int[] distances, int offset) throws IOException{
+            if(rows == nameOffsets.length - 1)
+                throw new IllegalStateException("more rows than declared");
+            for(int s = 0; s < sources; s++){
+                int d = distances[offset + s];
+                out.writeInt(d == DialShortestPaths.UNREACHABLE ? UNREACHABLE : d);
+            }
+            byte[] b = name.getBytes(StandardCharsets.UTF_8);
+            names.write(b);
+            nameOffsets[rows + 1] = nameOffsets[rows] + b.length;
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException{
+            names.close();
+            try{
+                if(rows != nameOffsets.length - 1)
+                    throw new IllegalStateException(rows + " rows written, " + (nameOffsets.length - 1) + " declared");
+                for(long o:nameOffsets)
+                    out.writeLong(o);
+                byte[] buffer = new byte[1 << 16];
+                try(InputStream in = new BufferedInputStream(new FileInputStream(namesTemp))){
+                    int r;
+                    while((r = in.read(buffer)) > 0)
+                        out.write(buffer, 0, r);
+                }
+            }
+            finally{
+                out.close();
+                namesTemp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A binary DistanceTable mapped in memory, the rows are read directly from the file
+ */
+public class DistanceTableFile {
+    private final MappedFile file;
+    private final String[] sources;
+    private final int rows;
+    private final long matrix;
+    private final long nameOffsets;
+    private final long nameBytes;
+
+    private DistanceTableFile(String path) throws IOException{
+        file = new MappedFile(path);
+        if(file.getInt(0) != DistanceTable.MAGIC || file.getInt(4) != DistanceTable.VERSION)
+            throw new IOException(path + " is not a distance table of version " + DistanceTable.VERSION);
+        sources = new String[file.getInt(8)];
+        rows = file.getInt(12);
+        matrix = file.getLong(16);
+        nameOffsets = file.getLong(24);
+        nameBytes = file.getLong(32);
+        long pos = DistanceTable.HEADER_SIZE;
+        for(int s = 0; s < sources.length; s++){
+            byte[] b = new byte[file.getInt(pos)];
+            file.get(pos + 4, b, 0, b.length);
+            sources[s] = new String(b, StandardCharsets.UTF_8);
+            pos += 4 + b.length;
+        }
+    }
+
+    public static DistanceTableFile open(String path) throws IOException{
+        return new DistanceTableFile(path);
+    }
+
+    public String[] getSources(){
+        return sources.clone();
+    }
+
+    public int sourceCount(){
+        return sources.length;
+    }
+
+    public int rowCount(){
+        return rows;
+    }
+
+    /**
+     * @return the distance of the row from the given source, DistanceTable.UNREACHABLE (-1) if not reachable
+     */
+    public int distance(int row, int source){
+        return file.getInt(matrix + 4L * ((long) row * sources.length + source));
+    }
+
+    /**
+     * Copy the distances of a row in the given array, starting at offset
+     */
+    public void row(int row, int[] dst, int offset){
+        long pos = matrix + 4L * (long) row * sources.length;
+        for(int s = 0; s < sources.length; s++)
+            dst[offset + s] = file.getInt(pos + 4L * s);
+    }
+
+    /**
+     * Compare the UTF-8 name of the row with the given bytes, as unsigned bytes, without decoding the name
+     */
+    public int compareName(int row, byte[] key){
+        long start = file.getLong(nameOffsets + 8L * row);
+        int length = (int) (file.getLong(nameOffsets + 8L * (row + 1)) - start);
+        int common = Math.min(length, key.length);
+        for(int i = 0; i < common; i++){
+            int c = (file.getByte(nameBytes + start + i) & 0xff) - (key[i] & 0xff);
+            if(c != 0)
+                return c;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * The UTF-8 bytes of the name of the row
+     */
+    public byte[] nameBytes(int row){
+        long start = file.getLong(nameOffsets + 8L * row);
+        byte[] b = new byte[(int) (file.getLong(nameOffsets + 8L * (row + 1)) - start)];
+        file.get(nameBytes + start, b, 0, b.length);
+        return b;
+    }
+
+    public String name(int row){
+        return new String(nameBytes(row), StandardCharsets.UTF_8);
+    }
+}
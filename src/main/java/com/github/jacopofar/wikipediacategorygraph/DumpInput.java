@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the dump files, decompressing them on the fly when the name ends with .gz,
+ * so the compressed category.sql.gz and categorylinks.sql.gz published by Wikimedia can be loaded directly
+ */
+final class DumpInput {
+    private DumpInput(){
+    }
+
+    static boolean isCompressed(String file){
+        return file.endsWith(".gz");
+    }
+
+    static InputStream open(String file) throws IOException{
+        return open(file, 0);
+    }
+
+    /**
+     * Open the file starting from the given offset of the uncompressed content.
+     * Compressed files have to be decompressed up to the offset
+     */
+    static InputStream open(String file, long offset) throws IOException{
+        InputStream in = new FileInputStream(file);
+        if(isCompressed(file))
+            in = new GZIPInputStream(in, 1 << 16);
+        long skipped = 0;
+        while(skipped < offset){
+            long s = in.skip(offset - skipped);
+            if(s <= 0){
+                in.close();
+                throw new IOException(file + " is shorter than " + offset + " bytes");
+            }
+            skipped += s;
+        }
+        return in;
+    }
+
+    static ReadableByteChannel channel(String file) throws IOException{
+        return channel(file, 0, -1);
+    }
+
+    /**
+     * Open the content of the file from the offset included to the end offset excluded, -1 to read up to the end
+     */
+    static ReadableByteChannel channel(String file, long offset, long end) throws IOException{
+        if(end >= 0)
+            return Channels.newChannel(new Limited(open(file, offset), end - offset));
+        if(isCompressed(file))
+            return Channels.newChannel(open(file, offset));
+        FileChannel fc = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        fc.position(offset);
+        return fc;
+    }
+
+    /**
+     * Stream ending after the given number of bytes
+     */
+    private static class Limited extends FilterInputStream {
+        private long remaining;
+
+        Limited(InputStream in, long length){
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException{
+            if(remaining <= 0)
+                return -1;
+            int c = in.read();
+            if(c >= 0)
+                remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException{
+            if(remaining <= 0)
+                return -1;
+            int r = in.read(b, off, (int) Math.min(len, remaining));
+            if(r > 0)
+                remaining -= r;
+            return r;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Parses a dump in three overlapping stages:
+ * a reader thread decompresses the file and cuts it in chunks of whole lines,
+ * a pool of parser threads tokenizes the chunks into TupleBatch copies,
+ * and the calling thread passes the batches to the handler in the file order, so the writes and commits
+ * are the same as with a sequential SqlValuesTokenizer.
+ *
+ * The chunks travel through a bounded queue in file order, so a slow writer stops the reader
+ * and at most depth chunks are in memory. Every 10 seconds the queue depth and the throughput
+ * of each stage are printed, and the same values are published as pipeline.* metrics.
+ */
+class DumpPipeline {
+    private static final long REPORT_INTERVAL = 10000;
+
+    private final int parsers;
+    private final int chunkSize;
+    private final BlockingQueue<Future<TupleBatch>> queue;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong tuplesParsed = new AtomicLong();
+    private final AtomicInteger chunksParsing = new AtomicInteger();
+    private volatile long tuplesWritten = 0;
+    private volatile boolean stopped = false;
+    private final Metrics.Counter bytesCounter = Metrics.global().counter("pipeline.bytes");
+    private final Metrics.Counter tuplesCounter = Metrics.global().counter("pipeline.tuples");
+
+    DumpPipeline(int parsers){
+        this(parsers, 4 << 20, parsers * 4);
+    }
+
+    /**
+     * @param parsers the number of parser threads
+     * @param chunkSize the size of the chunks, grown when a single line is longer
+     * @param depth the maximum number of chunks read and not yet written
+     */
+    DumpPipeline(int parsers, int chunkSize, int depth){
+        this.parsers = parsers;
+        this.chunkSize = chunkSize;
+        this.queue = new ArrayBlockingQueue<>(depth);
+    }
+
+    /**
+     * Parse the file passing to the handler, in the calling thread, the tuples accepted by the filter
+     * and the ends of the statements.
+     * The filter runs in the parser threads and can discard tuples early, it can be null to keep all of them
+     */
+    void run(String file, Predicate<SqlTuple> filter, SqlValuesTokenizer.TupleHandler handler) throws IOException{
+        run(file, 0, filter, handler);
+    }
+
+    /**
+     * Parse the file from the given offset, which must be the start of a line
+     */
+    void run(String file, long offset, Predicate<SqlTuple> filter, SqlValuesTokenizer.TupleHandler handler) throws IOException{
+        ExecutorService pool = Executors.newFixedThreadPool(parsers, r -> {
+            Thread t = new Thread(r, "dump-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread reader = new Thread(() -> read(file, offset, filter, pool), "dump-reader");
+        reader.setDaemon(true);
+        Thread monitor = new Thread(this::monitor, "dump-monitor");
+        monitor.setDaemon(true);
+        Metrics.global().gauge("pipeline.queue", queue::size);
+        Metrics.global().gauge("pipeline.parsing", chunksParsing::get);
+        long startTime = System.currentTimeMillis();
+        reader.start();
+        monitor.start();
+        try{
+            SqlTuple tuple = new SqlTuple();
+            while(true){
+                TupleBatch batch = queue.take().get();
+                if(batch == null)
+                    break;
+                batch.replay(tuple, handler);
+                tuplesWritten += batch.tupleCount();
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading " + file, e);
+        }
+        catch(ExecutionException e){
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("error parsing " + file, e.getCause());
+        }
+        finally{
+            stopped = true;
+            reader.interrupt();
+            monitor.interrupt();
+            pool.shutdownNow();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        System.out.println("Pipeline read " + bytesRead.get() / (1 << 20) + "MB (" + bytesRead.get() * 1000 / (1 << 20) / elapsed + "MB/s), "
+                + tuplesWritten + " tuples (" + tuplesWritten * 1000 / elapsed + "/s)");
+    }
+
+    /**
+     * The reader stage: cut the input in chunks ending with a newline and send them to the parsers
+     */
+    private void read(String file, long offset, Predicate<SqlTuple> filter, ExecutorService pool){
+        try(InputStream in = DumpInput.open(file, offset)){
+            byte[] chunk = new byte[chunkSize];
+            int length = 0;
+            long base = offset;
+            while(true){
+                int r = in.read(chunk, length, chunk.length - length);
+                if(r < 0)
+                    break;
+                length += r;
+                bytesRead.addAndGet(r);
+                bytesCounter.add(r);
+                if(length < chunk.length)
+                    continue;
+                int cut = length;
+                while(cut > 0 && chunk[cut - 1] != '\n')
+                    cut--;
+                if(cut == 0){
+                    //a line longer than the chunk
+                    chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    continue;
+                }
+                byte[] next = new byte[chunk.length];
+                System.arraycopy(chunk, cut, next, 0, length - cut);
+                if(!send(parse(pool, chunk, cut, base, filter)))
+                    return;
+                base += cut;
+                length -= cut;
+                chunk = next;
+            }
+            if(length > 0 && !send(parse(pool, chunk, length, base, filter)))
+                return;
+            send(CompletableFuture.completedFuture(null));
+        }
+        catch(IOException | RuntimeException e){
+            CompletableFuture<TupleBatch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            send(failed);
+        }
+    }
+
+    private Future<TupleBatch> parse(ExecutorService pool, byte[] chunk, int length, long base, Predicate<SqlTuple> filter){
+        chunksParsing.incrementAndGet();
+        return pool.submit(() -> {
+            try{
+                TupleBatch batch = new TupleBatch();
+                new SqlValuesTokenizer(ByteBuffer.wrap(chunk, 0, length), base).parse(new SqlValuesTokenizer.TupleHandler() {
+                    @Override
+                    public void tuple(SqlTuple tuple){
+                        if(filter == null || filter.test(tuple))
+                            batch.add(tuple);
+                    }
+
+                    @Override
+                    public void statementEnd(long offset){
+                        batch.endStatement(offset);
+                    }
+                });
+                tuplesParsed.addAndGet(batch.tupleCount());
+                tuplesCounter.add(batch.tupleCount());
+                return batch;
+            }
+            finally{
+                chunksParsing.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Put a chunk in the queue, waiting for room unless the pipeline was stopped
+     * @return false if the pipeline was stopped
+     */
+    private boolean send(Future<TupleBatch> batch){
+        try{
+            while(!stopped){
+                if(queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void monitor(){
+        long lastTime = System.currentTimeMillis();
+        long lastRead = 0;
+        long lastParsed = 0;
+        long lastWritten = 0;
+        try{
+            while(!stopped){
+                Thread.sleep(REPORT_INTERVAL);
+                long now = System.currentTimeMillis();
+                long elapsed = Math.max(1, now - lastTime);
+                long read = bytesRead.get();
+                long parsed = tuplesParsed.get();
+                long written = tuplesWritten;
+                System.out.println(" - pipeline: read " + read / (1 << 20) + "MB (" + (read - lastRead) * 1000 / (1 << 20) / elapsed + "MB/s), "
+                        + "parsed " + parsed + " tuples (" + (parsed - lastParsed) * 1000 / elapsed + "/s), "
+                        + "written " + written + " tuples (" + (written - lastWritten) * 1000 / elapsed + "/s), "
+                        + "queue " + queue.size() + "/" + (queue.size() + queue.remainingCapacity()) + ", parsing " + chunksParsing.get() + " chunks");
+                lastTime = now;
+                lastRead = read;
+                lastParsed = parsed;
+                lastWritten = written;
+            }
+        }
+        catch(InterruptedException e){
+            //the pipeline is over
+        }
+    }
+}
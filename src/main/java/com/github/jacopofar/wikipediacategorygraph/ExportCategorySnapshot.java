@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.inCategoryRel;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.subCategoryOfRel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Writes a CategoryGraphSnapshot of the graph created by CreateCategoryGraph, so the distances and the
+ * other analytics can be computed without starting Neo4j.
+ * Usage: graphfolder snapshotfile
+ */
+public class ExportCategorySnapshot {
+    public static void main(String args[]) throws IOException{
+        if(args.length!=2){
+            System.err.println("wrong usage, expecting 2 arguments: graphfolder snapshotfile");
+            return;
+        }
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(args[0]);
+        try{
+            export(graphDb, args[1]);
+        }
+        finally{
+            graphDb.shutdown();
+        }
+    }
+
+    public static void export(GraphDatabaseService graphDb, String file) throws IOException{
+        long startTime=System.currentTimeMillis();
+        try ( Transaction tx = graphDb.beginTx()){
+            System.out.println("Numbering the nodes...");
+            long[] categoryNodes=nodesWithLabel(graphDb, categoryLbl);
+            long[] articleNodes=nodesWithLabel(graphDb, articleLbl);
+            IntLongHashMap categoryIndexes=indexes(categoryNodes);
+            IntLongHashMap articleIndexes=indexes(articleNodes);
+            int categories=categoryNodes.length;
+            int articles=articleNodes.length;
+            System.out.println(categories+" categories and "+articles+" articles found");
+
+            File dir=new File(file).getAbsoluteFile().getParentFile();
+            AdjacencyWriter containers=new AdjacencyWriter(categories, dir);
+            AdjacencyWriter contained=new AdjacencyWriter(categories, dir);
+            AdjacencyWriter categoryArticles=new AdjacencyWriter(categories, dir);
+            AdjacencyWriter articleCategories=new AdjacencyWriter(articles, dir);
+            int[] pageIds=new int[categories+articles];
+            byte[][] categoryNames=new byte[categories][];
+            File namesTemp=File.createTempFile("snapshot", ".names", dir);
+            long[] nameOffsets=new long[categories+articles+1];
+            try(DataOutputStream namesOut=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesTemp), 1<<20))){
+                for(int i=0;i<categories;i++){
+                    Node n=graphDb.getNodeById(categoryNodes[i]);
+                    pageIds[i]=(int) n.getProperty("ID");
+                    categoryNames[i]=((String) n.getProperty("name")).getBytes(StandardCharsets.UTF_8);
+                    namesOut.write(categoryNames[i]);
+                    nameOffsets[i+1]=nameOffsets[i]+categoryNames[i].length;
+                    containers.add(n, Direction.OUTGOING, subCategoryOfRel, categoryIndexes);
+                    contained.add(n, Direction.INCOMING, subCategoryOfRel, categoryIndexes);
+                    categoryArticles.add(n, Direction.INCOMING, inCategoryRel, articleIndexes);
+                    if((i+1)%100000==0)
+                        System.out.println(" - exported "+(i+1)+" categories");
+                }
+                for(int i=0;i<articles;i++){
+                    Node n=graphDb.getNodeById(articleNodes[i]);
+                    pageIds[categories+i]=(int) n.getProperty("ID");
+                    byte[] name=((String) n.getProperty("name")).getBytes(StandardCharsets.UTF_8);
+                    namesOut.write(name);
+                    nameOffsets[categories+i+1]=nameOffsets[categories+i]+name.length;
+                    articleCategories.add(n, Direction.OUTGOING, inCategoryRel, categoryIndexes);
+                    if((i+1)%100000==0)
+                        System.out.println(" - exported "+(i+1)+" articles");
+                }
+            }
+
+            System.out.println("Writing the snapshot...");
+            try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<20))){
+                long[] sections=new long[CategoryGraphSnapshot.SECTIONS];
+                long pos=CategoryGraphSnapshot.HEADER_SIZE;
+                AdjacencyWriter[] adjacencies=new AdjacencyWriter[CategoryGraphSnapshot.SECTIONS];
+                adjacencies[CategoryGraphSnapshot.CONTAINERS]=containers;
+                adjacencies[CategoryGraphSnapshot.CONTAINED]=contained;
+                adjacencies[CategoryGraphSnapshot.ARTICLE_CATEGORIES]=articleCategories;
+                adjacencies[CategoryGraphSnapshot.CATEGORY_ARTICLES]=categoryArticles;
+                for(int s=0;s<CategoryGraphSnapshot.NODE_IDS;s++){
+                    sections[s]=pos;
+                    pos+=adjacencies[s].size();
+                }
+                sections[CategoryGraphSnapshot.NODE_IDS]=pos;
+                sections[CategoryGraphSnapshot.PAGE_IDS]=pos+8L*(categories+articles);
+
+                out.writeInt(CategoryGraphSnapshot.MAGIC);
+                out.writeInt(CategoryGraphSnapshot.VERSION);
+                out.writeInt(categories);
+                out.writeInt(articles);
+                out.writeLong(containers.edges);
+                out.writeLong(articleCategories.edges);
+                for(long s:sections)
+                    out.writeLong(s);
+                for(int s=0;s<CategoryGraphSnapshot.NODE_IDS;s++)
+                    adjacencies[s].writeTo(out);
+                for(long id:categoryNodes)
+                    out.writeLong(id);
+                for(long id:articleNodes)
+                    out.writeLong(id);
+                for(int id:pageIds)
+                    out.writeInt(id);
+            }
+
+            //the categories sorted by name, for the lookup by name
+            Integer[] sorted=new Integer[categories];
+            for(int i=0;i<categories;i++)
+                sorted[i]=i;
+            Arrays.sort(sorted, (a,b)->compareUnsigned(categoryNames[a], categoryNames[b]));
+            try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file+".names"), 1<<20))){
+                out.writeInt(CategoryGraphSnapshot.NAMES_MAGIC);
+                out.writeInt(categories+articles);
+                out.writeInt(categories);
+                for(long o:nameOffsets)
+                    out.writeLong(o);
+                for(int c:sorted)
+                    out.writeInt(c);
+                copy(namesTemp, out);
+            }
+            namesTemp.delete();
+            tx.success();
+        }
+        System.out.println("Snapshot written in "+(System.currentTimeMillis()-startTime)/1000+"s");
+    }
+
+    private static long[] nodesWithLabel(GraphDatabaseService graphDb, Label label){
+        long[] ids=new long[1<<16];
+        int count=0;
+        for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(label)){
+            if(count==ids.length)
+                ids=Arrays.copyOf(ids, count*2);
+            ids[count++]=n.getId();
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static IntLongHashMap indexes(long[] nodes){
+        IntLongHashMap map=new IntLongHashMap(nodes.length);
+        for(int i=0;i<nodes.length;i++){
+            if(nodes[i]>Integer.MAX_VALUE)
+                throw new IllegalStateException("node ID too big: "+nodes[i]);
+            map.put((int) nodes[i], i);
+        }
+        return map;
+    }
+
+    static int compareUnsigned(byte[] a, byte[] b){
+        int n=Math.min(a.length, b.length);
+        for(int i=0;i<n;i++){
+            int cmp=(a[i]&0xFF)-(b[i]&0xFF);
+            if(cmp!=0)
+                return cmp;
+        }
+        return a.length-b.length;
+    }
+
+    private static void copy(File from, DataOutputStream out) throws IOException{
+        byte[] buffer=new byte[1<<16];
+        try(InputStream in=new BufferedInputStream(new FileInputStream(from))){
+            int r;
+            while((r=in.read(buffer))>0)
+                out.write(buffer, 0, r);
+        }
+    }
+
+    /**
+     * Collects an adjacency section, keeping the offsets in memory and the delta encoded neighbors in a temporary file
+     */
+    private static class AdjacencyWriter {
+        private final long[] offsets;
+        private final File temp;
+        private final DataOutputStream data;
+        private int[] neighbors=new int[1024];
+        private int nodes=0;
+        private long written=0;
+        long edges=0;
+
+        AdjacencyWriter(int nodeCount, File dir) throws IOException{
+            offsets=new long[nodeCount+1];
+            temp=File.createTempFile("snapshot", ".adj", dir);
+            data=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1<<20));
+        }
+
+        /**
+         * Add the neighbors of the next node, numbered with the given map
+         */
+        void add(Node n, Direction direction, RelationshipType type, IntLongHashMap indexes) throws IOException{
+            int count=0;
+            for(Relationship r:n.getRelationships(direction, type)){
+                long other=indexes.get((int) r.getOtherNode(n).getId());
+                if(other==IntLongHashMap.MISSING)
+                    continue;
+                if(count==neighbors.length)
+                    neighbors=Arrays.copyOf(neighbors, count*2);
+                neighbors[count++]=(int) other;
+            }
+            Arrays.sort(neighbors, 0, count);
+            int previous=0;
+            for(int i=0;i<count;i++){
+                int delta=neighbors[i]-previous;
+                previous=neighbors[i];
+                while((delta & ~0x7F)!=0){
+                    data.write((delta & 0x7F) | 0x80);
+                    delta>>>=7;
+                    written++;
+                }
+                data.write(delta);
+                written++;
+            }
+            edges+=count;
+            offsets[++nodes]=written;
+        }
+
+        /**
+         * @return the size of the section, offsets included
+         */
+        long size(){
+            return 8L*offsets.length+written;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException{
+            data.close();
+            for(long o:offsets)
+                out.writeLong(o);
+            copy(temp, out);
+            temp.delete();
+        }
+    }
+}
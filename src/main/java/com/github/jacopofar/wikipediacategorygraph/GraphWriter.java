@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * The store operations needed to load the category graph, nodes are referred to by their ID in the store
+ */
+interface GraphWriter extends AutoCloseable {
+    /**
+     * Create a node with the given label and the ID and name properties, returning its node ID
+     */
+    long createNode(Label label, int ID, String name);
+
+    void createRelationship(long from, long to, RelationshipType type);
+
+    /**
+     * Called at the end of each INSERT statement, writers using transactions commit here
+     */
+    void commit();
+
+    /**
+     * Record the position reached by the load, committed together with the pending writes,
+     * so after a crash the store tells which statements it contains. Writers that can't resume ignore it
+     */
+    void progress(String phase, long offset);
+
+    @Override
+    void close();
+}
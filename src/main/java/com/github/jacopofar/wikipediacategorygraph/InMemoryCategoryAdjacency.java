@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Copy of a category graph in primitive arrays, in compressed sparse row form for both directions.
+ * The instance is immutable, so it can be traversed by many threads at the same time
+ */
+public class InMemoryCategoryAdjacency implements CategoryAdjacency {
+    private final int[] containedOffsets;
+    private final int[] contained;
+    private final int[] containerOffsets;
+    private final int[] containers;
+    private final String[] names;
+    private final NameDictionary indexes;
+
+    InMemoryCategoryAdjacency(int[] containedOffsets, int[] contained, int[] containerOffsets, int[] containers, String[] names){
+        this.containedOffsets = containedOffsets;
+        this.contained = contained;
+        this.containerOffsets = containerOffsets;
+        this.containers = containers;
+        this.names = names;
+        this.indexes = new NameDictionary(names.length);
+        for(int i = 0; i < names.length; i++)
+            indexes.put(names[i], i);
+    }
+
+    /**
+     * Copy the given graph, keeping the same numbering of the categories
+     */
+    public static InMemoryCategoryAdjacency copyOf(CategoryAdjacency graph){
+        int n = graph.nodeCount();
+        IntArrayBuilder contained = new IntArrayBuilder();
+        IntArrayBuilder containers = new IntArrayBuilder();
+        int[] containedOffsets = new int[n + 1];
+        int[] containerOffsets = new int[n + 1];
+        String[] names = new String[n];
+        for(int i = 0; i < n; i++){
+            names[i] = graph.name(i);
+            graph.forEachContained(i, contained);
+            graph.forEachContainer(i, containers);
+            containedOffsets[i + 1] = contained.size;
+            containerOffsets[i + 1] = containers.size;
+        }
+        return new InMemoryCategoryAdjacency(containedOffsets, contained.toArray(), containerOffsets, containers.toArray(), names);
+    }
+
+    @Override
+    public int nodeCount(){
+        return names.length;
+    }
+
+    @Override
+    public int indexOf(String name){
+        return (int) indexes.get(name);
+    }
+
+    @Override
+    public String name(int node){
+        return names[node];
+    }
+
+    @Override
+    public void forEachContained(int node, IntConsumer consumer){
+        for(int i = containedOffsets[node]; i < containedOffsets[node + 1]; i++)
+            consumer.accept(contained[i]);
+    }
+
+    @Override
+    public void forEachContainer(int node, IntConsumer consumer){
+        for(int i = containerOffsets[node]; i < containerOffsets[node + 1]; i++)
+            consumer.accept(containers[i]);
+    }
+
+    /**
+     * @return the number of SUBCATEGORY_OF edges
+     */
+    public int edgeCount(){
+        return contained.length;
+    }
+
+    private static class IntArrayBuilder implements IntConsumer {
+        private int[] items = new int[1 << 16];
+        private int size = 0;
+
+        @Override
+        public void accept(int v){
+            if(size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(items, size);
+        }
+    }
+}
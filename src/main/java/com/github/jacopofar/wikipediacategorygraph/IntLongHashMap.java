@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Open addressing map from int to long with linear probing, used to map page IDs to node IDs.
+ * Keys must not be negative and there is no removal. Not thread safe.
+ */
+public class IntLongHashMap {
+    public static final long MISSING = -1;
+    private static final int EMPTY = -1;
+
+    private IntBuffer keys;
+    private LongBuffer values;
+    private int mask;
+    private int size = 0;
+
+    public IntLongHashMap(int expectedSize){
+        allocate(Storage.tableCapacity(expectedSize));
+    }
+
+    private void allocate(int capacity){
+        keys = Storage.ints(capacity);
+        values = Storage.longs(capacity);
+        for(int i = 0; i < capacity; i++)
+            keys.put(i, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Return the value associated to the key, or MISSING
+     */
+    public long get(int key){
+        int i = Storage.mix(key) & mask;
+        while(true){
+            int k = keys.get(i);
+            if(k == key)
+                return values.get(i);
+            if(k == EMPTY)
+                return MISSING;
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(int key){
+        return get(key) != MISSING;
+    }
+
+    public void put(int key, long value){
+        if(key < 0)
+            throw new IllegalArgumentException("negative key " + key);
+        if(size * 3L >= (mask + 1) * 2L)
+            grow();
+        int i = Storage.mix(key) & mask;
+        while(true){
+            int k = keys.get(i);
+            if(k == key){
+                values.put(i, value);
+                return;
+            }
+            if(k == EMPTY){
+                keys.put(i, key);
+                values.put(i, value);
+                size++;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Call the consumer for each entry, in no particular order
+     */
+    public void forEach(IntLongConsumer consumer){
+        for(int i = 0; i <= mask; i++){
+            int k = keys.get(i);
+            if(k != EMPTY)
+                consumer.accept(k, values.get(i));
+        }
+    }
+
+    /**
+     * Write the entries, to be read back with readFrom
+     */
+    public void writeTo(DataOutput out) throws IOException{
+        out.writeInt(size);
+        for(int i = 0; i <= mask; i++){
+            int k = keys.get(i);
+            if(k != EMPTY){
+                out.writeInt(k);
+                out.writeLong(values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Add the entries written by writeTo
+     */
+    public void readFrom(DataInput in) throws IOException{
+        int n = in.readInt();
+        for(int i = 0; i < n; i++)
+            put(in.readInt(), in.readLong());
+    }
+
+    public interface IntLongConsumer {
+        void accept(int key, long value);
+    }
+
+    private void grow(){
+        IntBuffer oldKeys = keys;
+        LongBuffer oldValues = values;
+        allocate((mask + 1) * 2);
+        size = 0;
+        for(int i = 0; i < oldKeys.capacity(); i++){
+            int k = oldKeys.get(i);
+            if(k != EMPTY)
+                put(k, oldValues.get(i));
+        }
+    }
+}
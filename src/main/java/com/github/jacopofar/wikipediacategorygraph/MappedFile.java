@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read only file mapped in memory, in chunks of 1GB since a single mapping is limited to 2GB.
+ * Values are big endian, as written by DataOutputStream. Reads are thread safe
+ */
+class MappedFile {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    MappedFile(String file) throws IOException{
+        try(FileChannel fc = FileChannel.open(Paths.get(file), StandardOpenOption.READ)){
+            size = fc.size();
+            chunks = new MappedByteBuffer[(int) ((size >>> CHUNK_BITS) + 1)];
+            for(int i = 0; i < chunks.length; i++){
+                long start = (long) i << CHUNK_BITS;
+                //chunks overlap by 8 bytes, so a long can always be read from a single chunk
+                long length = Math.min(size - start, (1L << CHUNK_BITS) + 8);
+                chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+    }
+
+    long size(){
+        return size;
+    }
+
+    byte getByte(long pos){
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+    int getInt(long pos){
+        return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & CHUNK_MASK));
+    }
+
+    long getLong(long pos){
+        return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & CHUNK_MASK));
+    }
+
+    /**
+     * Copy length bytes starting at pos in the given array
+     */
+    void get(long pos, byte[] dst, int off, int length){
+        for(int i = 0; i < length; i++)
+            dst[off + i] = getByte(pos + i);
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * Counters, gauges and latency histograms of the running steps, with names like load.tuples or load.commit.
+ * All the metrics of the process are in the global registry, which is published through JMX as the
+ * com.github.jacopofar.wikipediacategorygraph:type=Metrics bean (one attribute per value) and can be
+ * written periodically as JSON lines in a log file, with the rate of each counter since the previous line.
+ * Histograms are exposed as count, mean, p50, p99 and max, in microseconds.
+ */
+public class Metrics {
+    private static final Metrics GLOBAL = new Metrics();
+    static{
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL.new Bean(), new ObjectName("com.github.jacopofar.wikipediacategorygraph:type=Metrics"));
+        }
+        catch(JMException e){
+            System.err.println("cannot register the metrics bean: " + e);
+        }
+    }
+
+    private final Map<String,Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String,LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String,Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile String phase = "idle";
+
+    private Writer log;
+    private Thread logger;
+    private Map<String,Long> lastValues = new TreeMap<>();
+    private long lastTime;
+
+    public static Metrics global(){
+        return GLOBAL;
+    }
+
+    public Counter counter(String name){
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Register a value read when the metrics are reported, replacing the one with the same name
+     */
+    public void gauge(String name, LongSupplier value){
+        gauges.put(name, value);
+    }
+
+    public Histogram histogram(String name){
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public void setPhase(String phase){
+        this.phase = phase;
+    }
+
+    public String getPhase(){
+        return phase;
+    }
+
+    /**
+     * The current value of every metric, sorted by name
+     */
+    public Map<String,Long> snapshot(){
+        TreeMap<String,Long> values = new TreeMap<>();
+        counters.forEach((name, c) -> values.put(name, c.get()));
+        gauges.forEach((name, g) -> values.put(name, g.getAsLong()));
+        histograms.forEach((name, h) -> {
+            values.put(name + ".count", h.count());
+            values.put(name + ".mean", h.mean() / 1000);
+            values.put(name + ".p50", h.percentile(0.5) / 1000);
+            values.put(name + ".p99", h.percentile(0.99) / 1000);
+            values.put(name + ".max", h.max() / 1000);
+        });
+        return values;
+    }
+
+    /**
+     * Start writing the metrics every interval milliseconds as JSON lines appended to the file
+     */
+    public synchronized void startLog(String file, long interval) throws IOException{
+        if(log != null)
+            return;
+        log = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        lastTime = System.currentTimeMillis();
+        lastValues = snapshot();
+        logger = new Thread(() -> {
+            try{
+                while(true){
+                    Thread.sleep(interval);
+                    writeLog();
+                }
+            }
+            catch(InterruptedException e){
+                //the log was stopped
+            }
+        }, "metrics-log");
+        logger.setDaemon(true);
+        logger.start();
+    }
+
+    /**
+     * Start the log if the command line has the --metrics-log=file option, --metrics-interval=seconds sets the interval
+     */
+    public static void startLog(CommandLine cl) throws IOException{
+        if(cl.hasOption("metrics-log"))
+            GLOBAL.startLog(cl.option("metrics-log", null), cl.intOption("metrics-interval", 10) * 1000L);
+    }
+
+    /**
+     * Write the last line and close the log
+     */
+    public synchronized void stopLog(){
+        if(log == null)
+            return;
+        logger.interrupt();
+        writeLog();
+        try{
+            log.close();
+        }
+        catch(IOException e){
+            System.err.println("cannot close the metrics log: " + e);
+        }
+        log = null;
+    }
+
+    private synchronized void writeLog(){
+        if(log == null)
+            return;
+        long now = System.currentTimeMillis();
+        Map<String,Long> values = snapshot();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(now).append(",\"phase\":\"").append(phase).append("\",\"metrics\":{");
+        appendValues(sb, values);
+        sb.append("},\"rates\":{");
+        ArrayList<String> rates = new ArrayList<>();
+        long elapsed = Math.max(1, now - lastTime);
+        for(String name:counters.keySet()){
+            Long previous = lastValues.get(name);
+            long delta = values.get(name) - (previous == null ? 0 : previous);
+            rates.add("\"" + name + "\":" + delta * 1000 / elapsed);
+        }
+        rates.sort(null);
+        sb.append(String.join(",", rates)).append("}}");
+        writeLine(sb.toString());
+        lastValues = values;
+        lastTime = now;
+    }
+
+    /**
+     * Write immediately a line for a single event, as the end of an iteration, if the log is active.
+     * The arguments are alternated names and values
+     */
+    public synchronized void event(String event, Object... keyValues){
+        if(log == null)
+            return;
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(System.currentTimeMillis()).append(",\"phase\":\"").append(phase).append("\",\"event\":\"").append(event).append('"');
+        for(int i = 0; i + 1 < keyValues.length; i += 2){
+            sb.append(",\"").append(keyValues[i]).append("\":");
+            if(keyValues[i + 1] instanceof Number)
+                sb.append(keyValues[i + 1]);
+            else
+                sb.append('"').append(String.valueOf(keyValues[i + 1]).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        writeLine(sb.append('}').toString());
+    }
+
+    private static void appendValues(StringBuilder sb, Map<String,Long> values){
+        boolean first = true;
+        for(Map.Entry<String,Long> e:values.entrySet()){
+            if(!first)
+                sb.append(',');
+            sb.append('"').append(e.getKey()).append("\":").append(e.getValue());
+            first = false;
+        }
+    }
+
+    private void writeLine(String line){
+        try{
+            log.write(line);
+            log.write('\n');
+            log.flush();
+        }
+        catch(IOException e){
+            System.err.println("cannot write the metrics log: " + e);
+        }
+    }
+
+    /**
+     * A counter that can be incremented from many threads
+     */
+    public static class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * @return the new value
+         */
+        public long increment(){
+            return value.incrementAndGet();
+        }
+
+        public void add(long n){
+            value.addAndGet(n);
+        }
+
+        public long get(){
+            return value.get();
+        }
+    }
+
+    /**
+     * Histogram of durations in nanoseconds, in buckets of powers of two, so percentiles are
+     * approximated by excess to the next power of two. Can be updated from many threads
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos){
+            if(nanos < 0)
+                nanos = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) - (nanos == 0 ? 0 : 1));
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+            long m;
+            while(nanos > (m = max.get()) && !max.compareAndSet(m, nanos));
+        }
+
+        /**
+         * Record the time elapsed since the given System.nanoTime()
+         */
+        public void since(long startNanos){
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long count(){
+            return count.get();
+        }
+
+        public long mean(){
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / n;
+        }
+
+        public long max(){
+            return max.get();
+        }
+
+        public long percentile(double q){
+            long n = count.get();
+            if(n == 0)
+                return 0;
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for(int i = 0; i < 64; i++){
+                seen += buckets.get(i);
+                if(seen >= rank)
+                    return Math.min(max.get(), i == 63 ? Long.MAX_VALUE : (2L << i) - 1);
+            }
+            return max.get();
+        }
+    }
+
+    /**
+     * The JMX view of the registry, attributes are read on demand so new metrics appear as they are created
+     */
+    private class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException{
+            if(attribute.equals("phase"))
+                return phase;
+            Long value = snapshot().get(attribute);
+            if(value == null)
+                throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute){
+            throw new UnsupportedOperationException("the metrics are read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes){
+            Map<String,Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for(String a:attributes){
+                if(a.equals("phase"))
+                    list.add(new Attribute(a, phase));
+                else if(values.containsKey(a))
+                    list.add(new Attribute(a, values.get(a)));
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes){
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature){
+            throw new UnsupportedOperationException("no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo(){
+            ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(new MBeanAttributeInfo("phase", String.class.getName(), "the running phase", true, false, false));
+            for(String name:snapshot().keySet())
+                attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of the category graph process",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the distances from many macro-categories at the same time.
+ * Each source is a task of a fork-join pool, running its own DialShortestPaths on a distance column
+ * confined to the thread, while the graph is shared and only read.
+ * The columns are then merged in a matrix with a row per category and a column per source.
+ */
+public class MultiSourceDistances {
+    private final CategoryAdjacency graph;
+    private final ForkJoinPool pool;
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong sourceMillis = new AtomicLong();
+
+    /**
+     * @param graph the graph, which must be safe to read from many threads
+     */
+    public MultiSourceDistances(CategoryAdjacency graph, ForkJoinPool pool){
+        this.graph = graph;
+        this.pool = pool;
+    }
+
+    /**
+     * Return the matrix of distances, where element [c][s] is the distance of category c from sources[s].
+     * A negative source is a missing category, with every distance UNREACHABLE
+     */
+    public int[][] compute(int[] sources){
+        List<Callable<int[]>> tasks = new ArrayList<>(sources.length);
+        for(int source:sources){
+            tasks.add(() -> {
+                long start = System.currentTimeMillis();
+                DialShortestPaths dial = new DialShortestPaths(graph);
+                int[] column = source < 0 ? dial.run() : dial.run(source);
+                settled.addAndGet(dial.getSettledCount());
+                sourceMillis.addAndGet(System.currentTimeMillis() - start);
+                return column;
+            });
+        }
+        int[][] columns = new int[sources.length][];
+        try{
+            List<Future<int[]>> results = pool.invokeAll(tasks);
+            for(int s = 0; s < sources.length; s++)
+                columns[s] = results.get(s).get();
+            return transpose(columns, graph.nodeCount());
+        }
+        catch(InterruptedException | ExecutionException e){
+            throw new RuntimeException("distance computation failed", e);
+        }
+    }
+
+    /**
+     * Merge the columns in a matrix with a row per category, filling the rows in parallel
+     */
+    private int[][] transpose(int[][] columns, int n) throws InterruptedException, ExecutionException{
+        int[][] matrix = new int[n][];
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(c -> {
+            int[] row = new int[columns.length];
+            for(int s = 0; s < columns.length; s++)
+                row[s] = columns[s][c];
+            matrix[c] = row;
+        })).get();
+        return matrix;
+    }
+
+    /**
+     * @return the number of categories settled, summed over all the sources
+     */
+    public long getSettledCount(){
+        return settled.get();
+    }
+
+    /**
+     * @return the time spent computing the single sources, summed over all the threads
+     */
+    public long getSourceMillis(){
+        return sourceMillis.get();
+    }
+}
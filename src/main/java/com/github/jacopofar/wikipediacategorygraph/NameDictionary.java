@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Map from UTF-8 names to long values, used to find the node of a category from its name.
+ * The names are appended to a table of byte pages and the entries are found with an open addressing
+ * table of entry numbers, so the lookup can be done directly on the bytes given by the tokenizer.
+ * Not thread safe.
+ */
+public class NameDictionary {
+    public static final long MISSING = -1;
+    private static final int EMPTY = -1;
+    private static final int PAGE_BITS = 22;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    //string table, an entry never spans two pages
+    private final ArrayList<ByteBuffer> pages = new ArrayList<>();
+    private ByteBuffer currentPage;
+
+    //per entry data: position of the name in the string table, its length, hash and value
+    private LongBuffer namePositions;
+    private IntBuffer nameLengths;
+    private IntBuffer hashes;
+    private LongBuffer values;
+    private int size = 0;
+
+    //slots of the hash table, containing entry numbers
+    private IntBuffer slots;
+    private int mask;
+
+    public NameDictionary(int expectedSize){
+        int capacity = Storage.tableCapacity(expectedSize);
+        allocateEntries(capacity / 2);
+        allocateSlots(capacity);
+        currentPage = Storage.bytes(PAGE_SIZE);
+        pages.add(currentPage);
+    }
+
+    private void allocateEntries(int n){
+        LongBuffer p = Storage.longs(n);
+        IntBuffer l = Storage.ints(n);
+        IntBuffer h = Storage.ints(n);
+        LongBuffer v = Storage.longs(n);
+        for(int i = 0; i < size; i++){
+            p.put(i, namePositions.get(i));
+            l.put(i, nameLengths.get(i));
+            h.put(i, hashes.get(i));
+            v.put(i, values.get(i));
+        }
+        namePositions = p;
+        nameLengths = l;
+        hashes = h;
+        values = v;
+    }
+
+    private void allocateSlots(int capacity){
+        slots = Storage.ints(capacity);
+        for(int i = 0; i < capacity; i++)
+            slots.put(i, EMPTY);
+        mask = capacity - 1;
+        for(int e = 0; e < size; e++){
+            int i = hashes.get(e) & mask;
+            while(slots.get(i) != EMPTY)
+                i = (i + 1) & mask;
+            slots.put(i, e);
+        }
+    }
+
+    private static int hash(byte[] a, int off, int len){
+        int h = 1;
+        for(int i = off; i < off + len; i++)
+            h = 31 * h + a[i];
+        return Storage.mix(h);
+    }
+
+    private boolean nameEquals(int entry, byte[] a, int off, int len){
+        if(nameLengths.get(entry) != len)
+            return false;
+        long pos = namePositions.get(entry);
+        ByteBuffer page = pages.get((int) (pos >>> PAGE_BITS));
+        int p = (int) (pos & (PAGE_SIZE - 1));
+        for(int i = 0; i < len; i++){
+            if(page.get(p + i) != a[off + i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the slot for the given name, which is either EMPTY or contains the entry of the name
+     */
+    private int slotOf(byte[] a, int off, int len, int h){
+        int i = h & mask;
+        while(true){
+            int e = slots.get(i);
+            if(e == EMPTY || (hashes.get(e) == h && nameEquals(e, a, off, len)))
+                return i;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Return the value associated to the name, or MISSING
+     */
+    public long get(byte[] a, int off, int len){
+        int e = slots.get(slotOf(a, off, len, hash(a, off, len)));
+        return e == EMPTY ? MISSING : values.get(e);
+    }
+
+    public long get(String name){
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        return get(b, 0, b.length);
+    }
+
+    public void put(byte[] a, int off, int len, long value){
+        if(len > PAGE_SIZE)
+            throw new IllegalArgumentException("name too long: " + len + " bytes");
+        int h = hash(a, off, len);
+        int slot = slotOf(a, off, len, h);
+        int e = slots.get(slot);
+        if(e != EMPTY){
+            values.put(e, value);
+            return;
+        }
+        if(size == values.capacity())
+            allocateEntries(size * 2);
+        if(currentPage.remaining() < len){
+            currentPage = Storage.bytes(PAGE_SIZE);
+            pages.add(currentPage);
+        }
+        long pos = ((long) (pages.size() - 1) << PAGE_BITS) | currentPage.position();
+        currentPage.put(a, off, len);
+        namePositions.put(size, pos);
+        nameLengths.put(size, len);
+        hashes.put(size, h);
+        values.put(size, value);
+        slots.put(slot, size);
+        size++;
+        if(size * 3L >= (mask + 1) * 2L)
+            allocateSlots((mask + 1) * 2);
+    }
+
+    public void put(String name, long value){
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        put(b, 0, b.length, value);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Write the entries, to be read back with readFrom
+     */
+    public void writeTo(DataOutput out) throws IOException{
+        out.writeInt(size);
+        byte[] name = new byte[256];
+        for(int e = 0; e < size; e++){
+            int len = nameLengths.get(e);
+            if(len > name.length)
+                name = new byte[len];
+            long pos = namePositions.get(e);
+            ByteBuffer page = pages.get((int) (pos >>> PAGE_BITS));
+            int p = (int) (pos & (PAGE_SIZE - 1));
+            for(int i = 0; i < len; i++)
+                name[i] = page.get(p + i);
+            out.writeInt(len);
+            out.write(name, 0, len);
+            out.writeLong(values.get(e));
+        }
+    }
+
+    /**
+     * Add the entries written by writeTo
+     */
+    public void readFrom(DataInput in) throws IOException{
+        int n = in.readInt();
+        byte[] name = new byte[256];
+        for(int e = 0; e < n; e++){
+            int len = in.readInt();
+            if(len > name.length)
+                name = new byte[len];
+            in.readFully(name, 0, len);
+            put(name, 0, len, in.readLong());
+        }
+    }
+}
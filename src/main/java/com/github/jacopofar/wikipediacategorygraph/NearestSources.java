@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.DOWN_COST;
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.UNREACHABLE;
+import static com.github.jacopofar.wikipediacategorygraph.DialShortestPaths.UP_COST;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds for each category only the k nearest sources, within a maximum distance, visiting the graph once
+ * for all the sources instead of once per source.
+ *
+ * It's Dial's algorithm on labels (category, source): the queue holds labels instead of categories, and a
+ * category is settled for a source the first time a label of that source is taken from the queue.
+ * Once a category has k labels, since they come out in distance order they are its k nearest sources, and
+ * no other label of it is queued or expanded: a source farther than k others from a category can't be among
+ * the k nearest of the categories reached through it. Labels beyond the maximum distance are not queued.
+ * So the memory for the labels is k per category, and with many sources the visit stops far earlier than a
+ * complete run from each of them. Ties at the k-th distance are broken by the queue order.
+ *
+ * It works on any CategoryAdjacency, in memory or read from Neo4j. An instance is not thread safe.
+ */
+public class NearestSources {
+    private static final int BUCKETS = UP_COST + 1;
+
+    private final CategoryAdjacency graph;
+    private final int k;
+    private final int maxDistance;
+    private final DialShortestPaths.IntStack[] queuedNodes = new DialShortestPaths.IntStack[BUCKETS];
+    private final DialShortestPaths.IntStack[] queuedSources = new DialShortestPaths.IntStack[BUCKETS];
+    private Labels labels;
+    private int current;
+    private int source;
+    private long settledCount;
+    private long relaxations;
+    private final IntConsumer relaxDown = w -> relax(w, current + DOWN_COST);
+    private final IntConsumer relaxUp = w -> relax(w, current + UP_COST);
+
+    /**
+     * @param k the maximum number of sources kept for each category
+     * @param maxDistance the maximum distance of a source, Integer.MAX_VALUE for no limit
+     */
+    public NearestSources(CategoryAdjacency graph, int k, int maxDistance){
+        if(k < 1)
+            throw new IllegalArgumentException("k must be at least 1, it's " + k);
+        this.graph = graph;
+        this.k = k;
+        this.maxDistance = maxDistance;
+        for(int i = 0; i < BUCKETS; i++){
+            queuedNodes[i] = new DialShortestPaths.IntStack();
+            queuedSources[i] = new DialShortestPaths.IntStack();
+        }
+    }
+
+    /**
+     * The sources found for each category, at most k, in increasing distance
+     */
+    public static class Labels {
+        private final int k;
+        private final int sourceCount;
+        private final int[] count;
+        private final int[] sources;
+        private final int[] distances;
+
+        Labels(int nodes, int k, int sourceCount){
+            this.k = k;
+            this.sourceCount = sourceCount;
+            this.count = new int[nodes];
+            this.sources = new int[nodes * k];
+            this.distances = new int[nodes * k];
+        }
+
+        public int count(int node){
+            return count[node];
+        }
+
+        /**
+         * @return the number, in the array passed to run(), of the i-th nearest source of the category
+         */
+        public int source(int node, int i){
+            return sources[node * k + i];
+        }
+
+        public int distance(int node, int i){
+            return distances[node * k + i];
+        }
+
+        boolean has(int node, int source){
+            for(int i = node * k, end = i + count[node]; i < end; i++)
+                if(sources[i] == source)
+                    return true;
+            return false;
+        }
+
+        void add(int node, int source, int distance){
+            int i = node * k + count[node]++;
+            sources[i] = source;
+            distances[i] = distance;
+        }
+
+        boolean full(int node){
+            return count[node] == k;
+        }
+
+        /**
+         * @return the distances of the category from every source, UNREACHABLE for the ones not found
+         */
+        public int[] row(int node){
+            int[] row = new int[sourceCount];
+            Arrays.fill(row, UNREACHABLE);
+            for(int i = 0; i < count[node]; i++)
+                row[sources[node * k + i]] = distances[node * k + i];
+            return row;
+        }
+    }
+
+    /**
+     * Find the nearest sources of each category, the negative sources are missing categories and are never found
+     */
+    public Labels run(int... sources){
+        labels = new Labels(graph.nodeCount(), k, sources.length);
+        settledCount = 0;
+        relaxations = 0;
+        for(int s = 0; s < sources.length; s++){
+            if(sources[s] < 0)
+                continue;
+            queuedNodes[0].push(sources[s]);
+            queuedSources[0].push(s);
+        }
+        current = 0;
+        int empty = 0;
+        //stop when a whole round of buckets is empty
+        while(empty < BUCKETS){
+            int b = current % BUCKETS;
+            if(queuedNodes[b].isEmpty()){
+                empty++;
+                current++;
+                continue;
+            }
+            empty = 0;
+            int v = queuedNodes[b].pop();
+            source = queuedSources[b].pop();
+            //a category with k labels or already settled for the source
+            if(labels.full(v) || labels.has(v, source))
+                continue;
+            labels.add(v, source, current);
+            settledCount++;
+            graph.forEachContained(v, relaxDown);
+            graph.forEachContainer(v, relaxUp);
+        }
+        Labels found = labels;
+        labels = null;
+        return found;
+    }
+
+    private void relax(int w, int d){
+        relaxations++;
+        if(d > maxDistance || labels.full(w) || labels.has(w, source))
+            return;
+        queuedNodes[d % BUCKETS].push(w);
+        queuedSources[d % BUCKETS].push(source);
+    }
+
+    /**
+     * @return the number of labels settled by the last run
+     */
+    public long getSettledCount(){
+        return settledCount;
+    }
+
+    /**
+     * @return the number of edges examined by the last run
+     */
+    public long getRelaxations(){
+        return relaxations;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.subCategoryOfRel;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Traverses the category graph stored in Neo4j.
+ * The categories are numbered in the order they are found in the store when creating the instance,
+ * the relationships are read from the store at each call, so every method needs an open transaction
+ */
+public class Neo4jCategoryAdjacency implements CategoryAdjacency {
+    private final GraphDatabaseService graphDb;
+    private long[] nodeIds;
+    private final IntLongHashMap indexes;
+    private int count = 0;
+
+    public Neo4jCategoryAdjacency(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+        this.nodeIds = new long[1 << 16];
+        this.indexes = new IntLongHashMap(1 << 16);
+        for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(categoryLbl)){
+            if(count == nodeIds.length)
+                nodeIds = Arrays.copyOf(nodeIds, count * 2);
+            if(n.getId() > Integer.MAX_VALUE)
+                throw new IllegalStateException("node ID too big: " + n.getId());
+            nodeIds[count] = n.getId();
+            indexes.put((int) n.getId(), count);
+            count++;
+        }
+    }
+
+    @Override
+    public int nodeCount(){
+        return count;
+    }
+
+    /**
+     * Return the number of the given node, or -1 if it's not a category
+     */
+    public int indexOfNode(long nodeId){
+        if(nodeId > Integer.MAX_VALUE)
+            return -1;
+        return (int) indexes.get((int) nodeId);
+    }
+
+    public long nodeId(int node){
+        return nodeIds[node];
+    }
+
+    @Override
+    public int indexOf(String name){
+        try(ResourceIterator<Node> matcher = graphDb.findNodesByLabelAndProperty(categoryLbl, "name", name).iterator()){
+            if(!matcher.hasNext())
+                return -1;
+            return indexOfNode(matcher.next().getId());
+        }
+    }
+
+    @Override
+    public String name(int node){
+        return (String) graphDb.getNodeById(nodeIds[node]).getProperty("name");
+    }
+
+    @Override
+    public void forEachContained(int node, IntConsumer consumer){
+        for(Relationship r:graphDb.getNodeById(nodeIds[node]).getRelationships(Direction.INCOMING, subCategoryOfRel)){
+            int other = (int) indexes.get((int) r.getStartNode().getId());
+            if(other >= 0)
+                consumer.accept(other);
+        }
+    }
+
+    @Override
+    public void forEachContainer(int node, IntConsumer consumer){
+        for(Relationship r:graphDb.getNodeById(nodeIds[node]).getRelationships(Direction.OUTGOING, subCategoryOfRel)){
+            int other = (int) indexes.get((int) r.getEndNode().getId());
+            if(other >= 0)
+                consumer.accept(other);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Creates the same graph as CreateCategoryGraph writing the store files directly with a BatchInserter.
+ * There are no transactions, the schema indexes are declared before the load
+ * and populated in one pass when the inserter is shut down.
+ * The store must not be in use by other processes and is not recoverable if the import is interrupted.
+ * The folder must be new or empty: the inserter would add a second copy of the graph to an existing store.
+ */
+public class OfflineImport {
+    /**
+     * @return true if the folder doesn't exist or is empty
+     */
+    static boolean isNewStore(String dbFolder){
+        String[] files=new File(dbFolder).list();
+        return files==null || files.length==0;
+    }
+
+    public static void run(String categoryFile, String categoryLinksFile, String dbFolder, int parsers) throws IOException{
+        if(!isNewStore(dbFolder))
+            throw new IOException(dbFolder+" is not empty, the offline import needs a new store");
+        long startTime=System.currentTimeMillis();
+        Map<String,String> config=new HashMap<>();
+        config.put("neostore.nodestore.db.mapped_memory", "256M");
+        config.put("neostore.relationshipstore.db.mapped_memory", "1G");
+        config.put("neostore.propertystore.db.mapped_memory", "512M");
+        config.put("neostore.propertystore.db.strings.mapped_memory", "512M");
+        BatchInserter inserter = BatchInserters.inserter(dbFolder, config);
+        long lastTime;
+        try{
+            //articles and categories have both a name and an ID
+            inserter.createDeferredSchemaIndex(articleLbl).on("name").create();
+            inserter.createDeferredSchemaIndex(categoryLbl).on("name").create();
+            inserter.createDeferredSchemaIndex(articleLbl).on("ID").create();
+            inserter.createDeferredSchemaIndex(categoryLbl).on("ID").create();
+
+            CategoryGraphLoader loader=new CategoryGraphLoader(new BatchGraphWriter(inserter), parsers);
+            System.out.println("Importing the categories and their IDs...");
+            loader.loadCategories(categoryFile);
+            System.out.println("Importing the edges...");
+            loader.loadLinks(categoryLinksFile);
+
+            System.out.println("Flushing the store and populating the indexes...");
+            lastTime=System.currentTimeMillis();
+        }
+        finally{
+            //also after a failure, to release the store lock and the mapped files
+            inserter.shutdown();
+        }
+        System.out.println("Store flushed in "+(System.currentTimeMillis()-lastTime)/1000 +" seconds");
+
+        //open the store normally, to check it and to have the indexes online before the next steps
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+        try (Transaction tx=graphDb.beginTx()){
+            graphDb.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+            tx.success();
+        }
+        graphDb.shutdown();
+        System.out.println("Offline import completed in "+(System.currentTimeMillis()-startTime)/1000 +" seconds");
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.inCategoryRel;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.subCategoryOfRel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Creates the relationships of the link phase from several threads, without two threads ever waiting for the same lock.
+ *
+ * Nodes are striped in 2 * writers lanes by node ID. While the dump is read, in the calling thread, the articles are
+ * created by the wrapped writer in the file order, as the sequential load does, and each relationship is appended to
+ * the bucket file of the lanes of its two endpoints. The buckets are then written in the rounds of a round robin
+ * tournament between the lanes: in each round every lane is paired with a different one, and each pair is written
+ * by its own thread and transactions, so the threads create relationships between disjoint sets of nodes.
+ *
+ * Disjoint nodes are not enough: Neo4j links a new relationship in front of the chain of each endpoint, locking the
+ * first relationship of the chain (of the type and direction, for dense nodes), and converting a node to dense locks
+ * all its chain. A chain can start with a relationship of an earlier round, whose other node now belongs to another
+ * thread. So the heads and the length of every chain are tracked while writing, and before each round the coordinator
+ * creates by itself, in an opening pass, the first relationships of the round of each node whose chain starts with
+ * the same relationship as the chain of a container written by another thread, and the relationships making a node
+ * dense. After that no relationship is locked by two threads, and the transactions can be large without lock waits
+ * or deadlocks.
+ *
+ * The resulting graph has the same nodes, with the same IDs, and the same relationships of the sequential load,
+ * only the relationship IDs and their order in the chains differ. ParallelLoadCheck, in the benchmarks module, loads
+ * a synthetic dump both ways and compares the two graphs.
+ *
+ * The tracking models the store of Neo4j 2.1, so the writer relies on these assumptions, and checks them:
+ * <ul>
+ * <li>the kernel is a 2.1 release, the constructor refuses any other one</li>
+ * <li>the store converts a node to dense at the given threshold, the value the database was configured with</li>
+ * <li>the node IDs fit an int, a bigger ID is refused while routing</li>
+ * <li>no two threads lock the same relationship, a deadlock reported by the store is rethrown as a violated assumption</li>
+ * <li>every routed relationship is written exactly once, write() fails if the count differs</li>
+ * </ul>
+ * When one of them fails the links have to be loaded sequentially, without --link-writers.
+ */
+class ParallelLinkWriter implements GraphWriter {
+    private static final int IN_CATEGORY = 0;
+    private static final int SUBCATEGORY_OF = 1;
+    //the chains of a node: outgoing, incoming SUBCATEGORY_OF and incoming IN_CATEGORY
+    private static final int CHAINS = 3;
+    private static final int EDGE_SIZE = 17;
+    //the release whose relationship chains are modelled
+    static final String MODELLED_KERNEL = "2.1.";
+
+    private final GraphWriter writer;
+    private final GraphDatabaseService graphDb;
+    private final int writers;
+    private final int lanes;
+    private final int batchSize;
+    private final int denseThreshold;
+    private final File folder;
+    private final DataOutputStream[] buckets;
+    private final long[] bucketSizes;
+    private long maxNode = -1;
+
+    //the state of the chains of each node, by node ID: length, other node of the first and of the oldest relationship
+    private int[] chainLength;
+    private int[] chainHeads;
+    private int[] chainTails;
+    private boolean[] dense;
+    //the thread (round * writers + pair + 1) writing a node in the current round, its edges and chains in the round
+    private int[] owner;
+    private int[] roundEdges;
+    private byte[] openedChains;
+
+    private final Metrics.Counter relationships = Metrics.global().counter("load.lane.relationships");
+    private final Metrics.Counter openingRelationships = Metrics.global().counter("load.lane.opening");
+    private final Metrics.Histogram commitLatency = Metrics.global().histogram("load.lane.commit");
+
+    /**
+     * @param writer creates the articles and the opening relationships, in the calling thread
+     * @param graphDb the database, configured with denseThreshold as dense_node_threshold
+     * @param writers the number of threads creating the relationships
+     * @param batchSize the relationships committed by each transaction of the writer threads
+     * @param denseThreshold the relationships making a node dense
+     * @param tempFolder where the bucket files are kept until written
+     * @throws IllegalStateException if the kernel is not the modelled one
+     */
+    ParallelLinkWriter(GraphWriter writer, GraphDatabaseService graphDb, int writers, int batchSize, int denseThreshold, File tempFolder) throws IOException{
+        String kernel = kernelVersion();
+        if(!kernel.startsWith(MODELLED_KERNEL))
+            throw new IllegalStateException("the parallel link writer models the relationship chains of Neo4j " + MODELLED_KERNEL
+                    + "x, not of " + kernel + ", load the links without --link-writers");
+        if(denseThreshold < 1)
+            throw new IllegalArgumentException("invalid dense node threshold " + denseThreshold);
+        this.writer = writer;
+        this.graphDb = graphDb;
+        this.writers = writers;
+        this.lanes = 2 * writers;
+        this.batchSize = batchSize;
+        this.denseThreshold = denseThreshold;
+        this.folder = new File(tempFolder, "links.lanes");
+        if(!folder.isDirectory() && !folder.mkdirs())
+            throw new IOException("cannot create " + folder);
+        buckets = new DataOutputStream[lanes * lanes];
+        bucketSizes = new long[lanes * lanes];
+        for(int i = 0; i < lanes; i++){
+            for(int j = i; j < lanes; j++)
+                buckets[bucket(i, j)] = open(bucketFile(i, j));
+        }
+    }
+
+    /**
+     * The version of the Neo4j kernel on the classpath, from its Maven properties, which are kept in the shaded jars too
+     * @return the version, or "unknown" if the properties are missing
+     */
+    static String kernelVersion() throws IOException{
+        try(InputStream in = GraphDatabaseService.class.getResourceAsStream("/META-INF/maven/org.neo4j/neo4j-kernel/pom.properties")){
+            if(in == null)
+                return "unknown";
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties.getProperty("version", "unknown");
+        }
+    }
+
+    private int lane(long node){
+        return (int) (node % lanes);
+    }
+
+    private int bucket(int a, int b){
+        return a < b ? a * lanes + b : b * lanes + a;
+    }
+
+    private File bucketFile(int a, int b){
+        return new File(folder, "bucket-" + Math.min(a, b) + "-" + Math.max(a, b) + ".bin");
+    }
+
+    private File bucketFile(int bucket){
+        return bucketFile(bucket / lanes, bucket % lanes);
+    }
+
+    private static DataOutputStream open(File file) throws IOException{
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    private static void writeEdge(DataOutputStream out, long from, long to, int type) throws IOException{
+        out.writeLong(from);
+        out.writeLong(to);
+        out.writeByte(type);
+    }
+
+    private interface EdgeConsumer {
+        void edge(long from, long to, int type) throws IOException;
+    }
+
+    private static void readEdges(File file, EdgeConsumer consumer) throws IOException{
+        long edges = file.length() / EDGE_SIZE;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))){
+            for(long i = 0; i < edges; i++)
+                consumer.edge(in.readLong(), in.readLong(), in.readByte());
+        }
+        catch(EOFException e){
+            throw new IOException(file + " is truncated", e);
+        }
+    }
+
+    private static RelationshipType type(int type){
+        return type == IN_CATEGORY ? inCategoryRel : subCategoryOfRel;
+    }
+
+    @Override
+    public long createNode(Label label, int ID, String name){
+        return writer.createNode(label, ID, name);
+    }
+
+    /**
+     * Route the relationship to the bucket of its endpoints' lanes, it's created by write()
+     */
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type){
+        if(Math.max(from, to) > Integer.MAX_VALUE)
+            throw new IllegalStateException("node ID " + Math.max(from, to) + " too big for the parallel link writer");
+        maxNode = Math.max(maxNode, Math.max(from, to));
+        int b = bucket(lane(from), lane(to));
+        try{
+            writeEdge(buckets[b], from, to, type.name().equals(inCategoryRel.name()) ? IN_CATEGORY : SUBCATEGORY_OF);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("cannot write the bucket " + bucketFile(b), e);
+        }
+        bucketSizes[b]++;
+    }
+
+    /**
+     * Commit the articles created so far
+     */
+    @Override
+    public void commit(){
+        writer.commit();
+    }
+
+    @Override
+    public void progress(String phase, long offset){
+        writer.progress(phase, offset);
+    }
+
+    /**
+     * Create all the routed relationships, in lanes - 1 rounds of writers threads
+     * @return the number of relationships created
+     */
+    long write() throws IOException{
+        for(DataOutputStream out:buckets){
+            if(out != null)
+                out.close();
+        }
+        long total = 0;
+        for(long s:bucketSizes)
+            total += s;
+        int nodes = (int) (maxNode + 1);
+        chainLength = new int[nodes];
+        chainHeads = new int[nodes * CHAINS];
+        Arrays.fill(chainHeads, -1);
+        chainTails = new int[nodes * CHAINS];
+        Arrays.fill(chainTails, -1);
+        dense = new boolean[nodes];
+        owner = new int[nodes];
+        roundEdges = new int[nodes];
+        openedChains = new byte[nodes];
+        System.out.println("Writing " + total + " relationships in " + (lanes - 1) + " rounds of " + writers + " lane pairs");
+        ExecutorService pool = Executors.newFixedThreadPool(writers, r -> {
+            Thread t = new Thread(r, "link-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        long written = 0;
+        long startTime = System.currentTimeMillis();
+        try{
+            for(int round = 0; round < lanes - 1; round++){
+                long roundTime = System.currentTimeMillis();
+                List<int[]> pairs = round(round);
+                File opening = new File(folder, "opening.bin");
+                File[] rest = new File[writers];
+                for(int k = 0; k < writers; k++)
+                    rest[k] = new File(folder, "pair-" + k + ".bin");
+                long openingWritten = split(round, pairs, opening, rest);
+                readEdges(opening, (from, to, type) -> writer.createRelationship(from, to, type(type)));
+                writer.commit();
+                openingRelationships.add(openingWritten);
+                List<Future<Long>> results = new ArrayList<>(writers);
+                for(File f:rest)
+                    results.add(pool.submit(() -> writeEdges(f)));
+                //the chains are updated while the threads write, creation order is opening first and then the file order
+                readEdges(opening, this::link);
+                for(File f:rest)
+                    readEdges(f, this::link);
+                long roundWritten = openingWritten;
+                ExecutionException failure = null;
+                for(Future<Long> f:results){
+                    try{
+                        roundWritten += f.get();
+                    }
+                    catch(ExecutionException e){
+                        failure = e;
+                    }
+                }
+                if(failure != null)
+                    throw failure;
+                written += roundWritten;
+                System.out.println(" - round " + (round + 1) + "/" + (lanes - 1) + ": " + roundWritten + " relationships (" + openingWritten
+                        + " in the opening pass) in " + (System.currentTimeMillis() - roundTime) + "ms, " + written + " of " + total + " done");
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing the relationships", e);
+        }
+        catch(ExecutionException e){
+            throw new IOException("error writing the relationships", e.getCause());
+        }
+        finally{
+            //the writer threads are not interrupted, an interrupt during a write would stop the store
+            pool.shutdown();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        System.out.println("Wrote " + written + " relationships in " + elapsed / 1000 + " seconds (" + written * 1000 / elapsed + "/s), "
+                + openingRelationships.get() + " of them in the opening passes");
+        if(written != total)
+            throw new IllegalStateException(total + " relationships were routed but " + written + " were written");
+        return written;
+    }
+
+    /**
+     * The buckets written by each thread in the given round, with the circle method: lane lanes - 1 stays still
+     * and the others rotate, so over lanes - 1 rounds every pair of lanes meets once.
+     * In the first round each thread also writes the buckets internal to its two lanes
+     */
+    private List<int[]> round(int round){
+        int n = lanes - 1;
+        List<int[]> pairs = new ArrayList<>(writers);
+        for(int k = 0; k < writers; k++){
+            int a = k == 0 ? n : (round + k) % n;
+            int b = k == 0 ? round : (round - k + n) % n;
+            if(round == 0)
+                pairs.add(new int[]{bucket(a, b), bucket(a, a), bucket(b, b)});
+            else
+                pairs.add(new int[]{bucket(a, b)});
+        }
+        return pairs;
+    }
+
+    /**
+     * Split the edges of the round in the ones of the opening pass and the ones of each thread
+     * @return the number of edges of the opening pass
+     */
+    private long split(int round, List<int[]> pairs, File opening, File[] rest) throws IOException{
+        int base = round * writers;
+        for(int k = 0; k < writers; k++){
+            int stamp = base + k + 1;
+            for(int b:pairs.get(k)){
+                readEdges(bucketFile(b), (from, to, type) -> {
+                    touch((int) from, stamp, base);
+                    if(to != from)
+                        touch((int) to, stamp, base);
+                });
+            }
+        }
+        long[] openingEdges = {0};
+        try(DataOutputStream openingOut = open(opening)){
+            for(int k = 0; k < writers; k++){
+                try(DataOutputStream restOut = open(rest[k])){
+                    for(int b:pairs.get(k)){
+                        readEdges(bucketFile(b), (from, to, type) -> {
+                            int child = (int) from;
+                            int container = (int) to;
+                            int containerChain = type == SUBCATEGORY_OF ? 1 : 2;
+                            if(needsOpening(child, 0, base) || needsOpening(container, containerChain, base)){
+                                writeEdge(openingOut, from, to, type);
+                                openingEdges[0]++;
+                            }
+                            else
+                                writeEdge(restOut, from, to, type);
+                            openedChains[child] |= 1;
+                            openedChains[container] |= 1 << containerChain;
+                        });
+                    }
+                }
+            }
+        }
+        return openingEdges[0];
+    }
+
+    private void touch(int node, int stamp, int base){
+        if(owner[node] <= base){
+            owner[node] = stamp;
+            roundEdges[node] = 0;
+            openedChains[node] = 0;
+        }
+        roundEdges[node]++;
+    }
+
+    /**
+     * Tell whether the edge of the round arriving at the given chain of the node must be created in the opening pass:
+     * when the node becomes dense in this round, since the conversion relinks all its chain, or when it's the first
+     * edge of the chain in the round and the outgoing chain of the node starts with a relationship that starts also
+     * a chain of its container, written by another thread.
+     * A relationship which is not the first of the container's chain is never locked by the other thread, since
+     * the chains only grow in front, and once the chains of the contained node start with a relationship of the
+     * opening pass only the other thread locks it
+     */
+    private boolean needsOpening(int node, int chain, int base){
+        if(becomesDense(node))
+            return true;
+        if((openedChains[node] & (1 << chain)) == 0){
+            int container = chainHeads[node * CHAINS];
+            if(container >= 0 && owner[container] > base && owner[container] != owner[node] && !becomesDense(container)
+                    && startsChain(container, node))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A node is converted creating a relationship when its chain is long at least denseThreshold,
+     * with a margin of one relationship
+     */
+    private boolean becomesDense(int node){
+        return !dense[node] && chainLength[node] + roundEdges[node] >= denseThreshold - 1;
+    }
+
+    /**
+     * Tell whether an incoming chain of the container starts with a relationship from the contained node,
+     * there are no parallel edges so it's the one starting the outgoing chain of the contained node
+     */
+    private boolean startsChain(int container, int contained){
+        return chainHeads[container * CHAINS + 1] == contained || chainHeads[container * CHAINS + 2] == contained;
+    }
+
+    /**
+     * Update the chains of the endpoints with a created relationship, as Neo4j does: a relationship is added in front
+     * of the chains, and converting a node to dense moves the relationships one at a time in the chains of their type
+     * and direction, again in front, so those chains start with their oldest relationship.
+     * Loops go in a chain of their own in dense nodes, and never start a chain shared with another node
+     */
+    private void link(long from, long to, int type){
+        int child = (int) from;
+        int container = (int) to;
+        convertIfDense(child);
+        if(container == child){
+            chainLength[child]++;
+            return;
+        }
+        convertIfDense(container);
+        add(child, 0, container);
+        add(container, type == SUBCATEGORY_OF ? 1 : 2, child);
+    }
+
+    private void convertIfDense(int node){
+        if(dense[node] || chainLength[node] < denseThreshold)
+            return;
+        dense[node] = true;
+        System.arraycopy(chainTails, node * CHAINS, chainHeads, node * CHAINS, CHAINS);
+    }
+
+    private void add(int node, int chain, int other){
+        chainHeads[node * CHAINS + chain] = other;
+        if(chainTails[node * CHAINS + chain] < 0)
+            chainTails[node * CHAINS + chain] = other;
+        chainLength[node]++;
+    }
+
+    /**
+     * Create the relationships of the file in the calling thread, with its own transactions
+     */
+    private long writeEdges(File file) throws IOException{
+        long[] written = {0};
+        int[] pending = {0};
+        try(TransactionalGraphWriter out = new TransactionalGraphWriter(graphDb)){
+            readEdges(file, (from, to, type) -> {
+                try{
+                    out.createRelationship(from, to, type(type));
+                }
+                catch(DeadlockDetectedException e){
+                    throw new IllegalStateException("two link writers locked the same relationship creating " + from + " -> " + to
+                            + ", the chains of the store are not the modelled ones", e);
+                }
+                written[0]++;
+                if(++pending[0] == batchSize){
+                    commit(out);
+                    pending[0] = 0;
+                }
+            });
+            commit(out);
+        }
+        relationships.add(written[0]);
+        return written[0];
+    }
+
+    private void commit(TransactionalGraphWriter out){
+        long startTime = System.nanoTime();
+        out.commit();
+        commitLatency.since(startTime);
+    }
+
+    /**
+     * Delete the bucket files
+     */
+    @Override
+    public void close(){
+        for(DataOutputStream out:buckets){
+            try{
+                if(out != null)
+                    out.close();
+            }
+            catch(IOException e){
+                //deleted anyway
+            }
+        }
+        File[] files = folder.listFiles();
+        if(files != null){
+            for(File f:files)
+                f.delete();
+        }
+        folder.delete();
+    }
+
+    /**
+     * Remove what an interrupted parallel link phase committed, the relationships of the given categories
+     * and the articles, so the phase can be loaded again. Deletes are committed every batchSize relationships
+     */
+    static void deleteLinks(GraphDatabaseService graphDb, GraphWriter writer, IntLongHashMap categoryByID, int batchSize){
+        long[] categories = new long[categoryByID.size()];
+        int[] n = {0};
+        categoryByID.forEach((ID, node) -> categories[n[0]++] = node);
+        long deleted = 0;
+        int pending = 0;
+        for(long category:categories){
+            List<Relationship> rels = new ArrayList<>();
+            //every relationship ends in its container category
+            for(Relationship r:graphDb.getNodeById(category).getRelationships(Direction.INCOMING, inCategoryRel, subCategoryOfRel))
+                rels.add(r);
+            for(Relationship r:rels){
+                r.delete();
+                deleted++;
+                if(++pending >= batchSize){
+                    writer.commit();
+                    pending = 0;
+                }
+            }
+        }
+        writer.commit();
+        long articles = 0;
+        while(true){
+            int found = 0;
+            try(ResourceIterator<Node> nodes = GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(articleLbl).iterator()){
+                while(nodes.hasNext() && found < batchSize){
+                    nodes.next().delete();
+                    found++;
+                }
+            }
+            writer.commit();
+            articles += found;
+            if(found == 0)
+                break;
+        }
+        System.out.println("Deleted " + deleted + " relationships and " + articles + " articles of the interrupted link phase");
+    }
+}
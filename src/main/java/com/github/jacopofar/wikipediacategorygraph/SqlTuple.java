@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A single tuple of an INSERT statement, as emitted by the SqlValuesTokenizer.
+ * The instance is reused for every tuple, so its content is valid only during the callback.
+ * String fields are kept as unescaped UTF-8 bytes and converted to String only when asked for
+ */
+public class SqlTuple {
+    static final byte NUMBER = 0;
+    static final byte STRING = 1;
+    static final byte NULL = 2;
+    static final byte DECIMAL = 3;
+
+    private byte[] data = new byte[1024];
+    private int dataLength = 0;
+    private int[] start = new int[8];
+    private int[] end = new int[8];
+    private long[] number = new long[8];
+    private byte[] kind = new byte[8];
+    private int size = 0;
+
+    void clear(){
+        size = 0;
+        dataLength = 0;
+    }
+
+    void beginField(byte fieldKind){
+        if(size == kind.length){
+            int n = size * 2;
+            start = Arrays.copyOf(start, n);
+            end = Arrays.copyOf(end, n);
+            number = Arrays.copyOf(number, n);
+            kind = Arrays.copyOf(kind, n);
+        }
+        kind[size] = fieldKind;
+        start[size] = dataLength;
+        end[size] = dataLength;
+        number[size] = 0;
+        size++;
+    }
+
+    void append(int b){
+        if(dataLength == data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[dataLength++] = (byte) b;
+        end[size - 1] = dataLength;
+    }
+
+    void append(byte[] bytes, int offset, int length){
+        if(dataLength + length > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+        System.arraycopy(bytes, offset, data, dataLength, length);
+        dataLength += length;
+        end[size - 1] = dataLength;
+    }
+
+    void setNumber(long value){
+        number[size - 1] = value;
+    }
+
+    void setDecimal(){
+        kind[size - 1] = DECIMAL;
+    }
+
+    /**
+     * @return the number of fields in the tuple
+     */
+    public int size() {
+        return size;
+    }
+
+    byte kind(int field){
+        return kind[field];
+    }
+
+    public boolean isNull(int field){
+        return kind[field] == NULL;
+    }
+
+    public boolean isNumber(int field){
+        return kind[field] == NUMBER;
+    }
+
+    /**
+     * Return the value of an integer field
+     */
+    public long getLong(int field){
+        if(kind[field] != NUMBER)
+            throw new NumberFormatException("field " + field + " is not a number: " + getString(field));
+        return number[field];
+    }
+
+    public int getInt(int field){
+        long v = getLong(field);
+        if(v > Integer.MAX_VALUE || v < Integer.MIN_VALUE)
+            throw new NumberFormatException("field " + field + " does not fit an int: " + v);
+        return (int) v;
+    }
+
+    /**
+     * Return the field decoded as UTF-8, this is the only method allocating a String
+     */
+    public String getString(int field){
+        if(kind[field] == NULL)
+            return null;
+        return new String(data, start[field], end[field] - start[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the backing array of the unescaped field bytes, to be used together with start() and length()
+     */
+    public byte[] array(){
+        return data;
+    }
+
+    public int start(int field){
+        return start[field];
+    }
+
+    public int length(int field){
+        return end[field] - start[field];
+    }
+
+    public boolean fieldEquals(int field, byte[] value){
+        if(length(field) != value.length)
+            return false;
+        return startsWith(field, value);
+    }
+
+    public boolean startsWith(int field, byte[] prefix){
+        if(length(field) < prefix.length)
+            return false;
+        int s = start[field];
+        for(int i = 0; i < prefix.length; i++){
+            if(data[s + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("(");
+        for(int i = 0; i < size; i++){
+            if(i > 0)
+                sb.append(',');
+            if(kind[i] == STRING)
+                sb.append('\'').append(getString(i)).append('\'');
+            else
+                sb.append(getString(i));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Byte level tokenizer for the INSERT INTO ... VALUES (...),(...); lines of a MySQL dump.
+ * Lines not starting with INSERT INTO (comments, DDL) are skipped, every tuple is passed to the handler
+ * as a reused SqlTuple. String values are unescaped following the MySQL rules, so quotes,
+ * backslashes and parentheses inside titles do not break the parsing.
+ */
+public class SqlValuesTokenizer {
+
+    /**
+     * Receives the tuples of the dump
+     */
+    public interface TupleHandler {
+        void tuple(SqlTuple tuple);
+
+        /**
+         * Called after each INSERT statement, with the offset of the first byte after its line
+         */
+        default void statementEnd(long offset){
+        }
+    }
+
+    private static final byte[] INSERT_INTO = "INSERT INTO ".getBytes();
+    private static final byte[] VALUES = "VALUES".getBytes();
+    private static final byte[] NULL = "NULL".getBytes();
+    private static final int EOF = -1;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final SqlTuple tuple = new SqlTuple();
+    //bytes consumed before the current content of the buffer
+    private long bufferOffset;
+
+    /**
+     * Tokenize the content of a channel, reading it through a direct buffer
+     */
+    public SqlValuesTokenizer(ReadableByteChannel channel){
+        this(channel, 0);
+    }
+
+    /**
+     * Tokenize the content of a channel whose first byte is at the given offset of the file.
+     * Offsets passed to statementEnd are relative to the file
+     */
+    public SqlValuesTokenizer(ReadableByteChannel channel, long base){
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(1 << 20);
+        this.buffer.limit(0);
+        this.bufferOffset = base;
+    }
+
+    /**
+     * Tokenize the content of a buffer, from its position to its limit.
+     * Offsets passed to statementEnd are relative to the given base
+     */
+    public SqlValuesTokenizer(ByteBuffer content, long base){
+        this.channel = null;
+        this.buffer = content;
+        this.bufferOffset = base - content.position();
+    }
+
+    /**
+     * Tokenize a whole file, decompressing it if the name ends with .gz
+     */
+    public static void parse(String file, TupleHandler handler) throws IOException{
+        parse(file, 0, -1, handler);
+    }
+
+    /**
+     * Tokenize the part of a file from the offset included to the end excluded, -1 for the whole rest.
+     * The offset must be the start of a line
+     */
+    public static void parse(String file, long offset, long end, TupleHandler handler) throws IOException{
+        try(ReadableByteChannel channel = DumpInput.channel(file, offset, end)){
+            new SqlValuesTokenizer(channel, offset).parse(handler);
+        }
+    }
+
+    /**
+     * Read the whole input, passing each tuple to the handler
+     */
+    public void parse(TupleHandler handler) throws IOException{
+        while(true){
+            int c = read();
+            if(c == EOF)
+                return;
+            if(c == '\n')
+                continue;
+            if(c == INSERT_INTO[0] && matchRest(INSERT_INTO)){
+                parseInsert(handler);
+                handler.statementEnd(offset());
+            }
+            else
+                skipLine();
+        }
+    }
+
+    private long offset(){
+        return bufferOffset + buffer.position();
+    }
+
+    private int read() throws IOException{
+        if(!buffer.hasRemaining() && !fill())
+            return EOF;
+        return buffer.get() & 0xFF;
+    }
+
+    private int peek() throws IOException{
+        if(!buffer.hasRemaining() && !fill())
+            return EOF;
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    private boolean fill() throws IOException{
+        if(channel == null)
+            return false;
+        bufferOffset += buffer.limit();
+        buffer.clear();
+        int r;
+        do{
+            r = channel.read(buffer);
+        }while(r == 0);
+        buffer.flip();
+        return r > 0;
+    }
+
+    /**
+     * Match the given keyword, whose first byte was already read.
+     * On mismatch the offending byte is left in the buffer
+     */
+    private boolean matchRest(byte[] keyword) throws IOException{
+        for(int i = 1; i < keyword.length; i++){
+            int c = peek();
+            if(c != keyword[i])
+                return false;
+            read();
+        }
+        return true;
+    }
+
+    private void skipLine() throws IOException{
+        int c;
+        do{
+            c = read();
+        }while(c != '\n' && c != EOF);
+    }
+
+    private void parseInsert(TupleHandler handler) throws IOException{
+        //skip the table name and the optional column list, up to the VALUES keyword
+        int c;
+        while(true){
+            c = read();
+            if(c == EOF || c == '\n')
+                throw malformed("INSERT without VALUES");
+            if(c == '`'){
+                do{
+                    c = read();
+                }while(c != '`' && c != EOF);
+            }
+            else if(c == VALUES[0] && matchRest(VALUES))
+                break;
+        }
+        while(true){
+            c = skipSpaces();
+            if(c != '(')
+                throw malformed("expected '(' but found '" + (char) c + "'");
+            parseTuple();
+            handler.tuple(tuple);
+            c = skipSpaces();
+            if(c == ',')
+                continue;
+            if(c == ';'){
+                skipLine();
+                return;
+            }
+            throw malformed("expected ',' or ';' after a tuple but found '" + (char) c + "'");
+        }
+    }
+
+    private void parseTuple() throws IOException{
+        tuple.clear();
+        while(true){
+            int c = skipSpaces();
+            if(c == '\'')
+                parseString();
+            else if(c == 'N' && matchRest(NULL))
+                tuple.beginField(SqlTuple.NULL);
+            else if(c == '_'){
+                //charset introducer, as in _binary 'abc'
+                do{
+                    c = read();
+                }while(c != '\'' && c != EOF);
+                parseString();
+            }
+            else
+                parseNumber(c);
+            c = skipSpaces();
+            if(c == ')')
+                return;
+            if(c != ',')
+                throw malformed("expected ',' or ')' in a tuple but found '" + (char) c + "'");
+        }
+    }
+
+    private void parseString() throws IOException{
+        tuple.beginField(SqlTuple.STRING);
+        while(true){
+            int c = read();
+            switch(c){
+                case EOF:
+                    throw malformed("unterminated string");
+                case '\\':
+                    c = read();
+                    switch(c){
+                        case '0': tuple.append(0); break;
+                        case 'b': tuple.append('\b'); break;
+                        case 'n': tuple.append('\n'); break;
+                        case 'r': tuple.append('\r'); break;
+                        case 't': tuple.append('\t'); break;
+                        case 'Z': tuple.append(26); break;
+                        case EOF: throw malformed("unterminated string");
+                        default: tuple.append(c);
+                    }
+                    break;
+                case '\'':
+                    //a doubled quote is an escaped quote
+                    if(peek() == '\''){
+                        read();
+                        tuple.append('\'');
+                        break;
+                    }
+                    return;
+                default:
+                    tuple.append(c);
+            }
+        }
+    }
+
+    private void parseNumber(int c) throws IOException{
+        tuple.beginField(SqlTuple.NUMBER);
+        boolean negative = false;
+        boolean integral = true;
+        long value = 0;
+        if(c == '-'){
+            negative = true;
+            tuple.append(c);
+            c = read();
+        }
+        while(true){
+            if(c >= '0' && c <= '9')
+                value = value * 10 + (c - '0');
+            else if(c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+                integral = false;
+            else
+                throw malformed("unexpected character '" + (char) c + "' in a number");
+            tuple.append(c);
+            c = peek();
+            if(c == ',' || c == ')' || c == ' ' || c == '\t' || c == '\r' || c == EOF)
+                break;
+            read();
+        }
+        if(tuple.length(tuple.size() - 1) == 0)
+            throw malformed("empty value");
+        if(integral)
+            tuple.setNumber(negative ? -value : value);
+        else
+            tuple.setDecimal();
+    }
+
+    private int skipSpaces() throws IOException{
+        int c;
+        do{
+            c = read();
+        }while(c == ' ' || c == '\t' || c == '\r');
+        return c;
+    }
+
+    private IOException malformed(String message){
+        return new IOException("malformed SQL dump at byte " + offset() + ": " + message);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Allocates the arrays backing the primitive maps.
+ * An array is allocated on the heap when it takes less than a quarter of the heap still available,
+ * otherwise it's allocated off-heap with a direct buffer, limited by -XX:MaxDirectMemorySize
+ */
+class Storage {
+    private static boolean warned = false;
+
+    private static boolean offHeap(long bytes){
+        Runtime rt = Runtime.getRuntime();
+        long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        if(bytes < available / 4)
+            return false;
+        if(!warned){
+            warned = true;
+            System.out.println("Not enough heap for "+bytes/(1<<20)+"MB, using off-heap memory for the dictionaries");
+        }
+        return true;
+    }
+
+    static ByteBuffer bytes(int n){
+        if(offHeap(n))
+            return ByteBuffer.allocateDirect(n);
+        return ByteBuffer.allocate(n);
+    }
+
+    static IntBuffer ints(int n){
+        if(offHeap(4L * n))
+            return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+        return IntBuffer.allocate(n);
+    }
+
+    static LongBuffer longs(int n){
+        if(offHeap(8L * n))
+            return ByteBuffer.allocateDirect(8 * n).order(ByteOrder.nativeOrder()).asLongBuffer();
+        return LongBuffer.allocate(n);
+    }
+
+    /**
+     * Capacity of an open addressing table for the given number of entries, a power of two
+     */
+    static int tableCapacity(int entries){
+        long c = Long.highestOneBit(Math.max(16, entries * 3L / 2)) * 2;
+        if(c > 1 << 30)
+            throw new IllegalStateException("too many entries for a table: " + entries);
+        return (int) c;
+    }
+
+    static int mix(int h){
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Writes the graph through the embedded database, with a transaction for each INSERT statement.
+ * The transaction still open when closing the writer, if any, is rolled back.
+ * The progress of the load is stored in the phase and offset properties of a LoadProgress node
+ */
+class TransactionalGraphWriter implements GraphWriter {
+    static final Label progressLbl = DynamicLabel.label("LoadProgress");
+
+    private final GraphDatabaseService graphDb;
+    private Transaction tx;
+    private long progressNode = -1;
+    private final String phase;
+    private final long offset;
+
+    TransactionalGraphWriter(GraphDatabaseService graphDb){
+        this.graphDb = graphDb;
+        this.tx = graphDb.beginTx();
+        String phase = null;
+        long offset = 0;
+        for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(progressLbl)){
+            progressNode = n.getId();
+            phase = (String) n.getProperty("phase");
+            offset = (long) n.getProperty("offset");
+        }
+        this.phase = phase;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the phase of the progress found in the store when the writer was created, null if there was none
+     */
+    String getPhase(){
+        return phase;
+    }
+
+    long getOffset(){
+        return offset;
+    }
+
+    @Override
+    public long createNode(Label label, int ID, String name){
+        Node n = graphDb.createNode(label);
+        n.setProperty("name", name);
+        n.setProperty("ID", ID);
+        return n.getId();
+    }
+
+    @Override
+    public void createRelationship(long from, long to, RelationshipType type){
+        graphDb.getNodeById(from).createRelationshipTo(graphDb.getNodeById(to), type);
+    }
+
+    @Override
+    public void commit(){
+        tx.success();
+        tx.close();
+        tx = graphDb.beginTx();
+    }
+
+    @Override
+    public void progress(String phase, long offset){
+        Node n = progressNode < 0 ? graphDb.createNode(progressLbl) : graphDb.getNodeById(progressNode);
+        progressNode = n.getId();
+        n.setProperty("phase", phase);
+        n.setProperty("offset", offset);
+    }
+
+    /**
+     * Return the node with the given label and ID property already in the store, or -1, to resume a load
+     */
+    long findNode(Label label, int ID){
+        try(ResourceIterator<Node> nodes = graphDb.findNodesByLabelAndProperty(label, "ID", ID).iterator()){
+            return nodes.hasNext() ? nodes.next().getId() : -1;
+        }
+    }
+
+    @Override
+    public void close(){
+        tx.close();
+    }
+}
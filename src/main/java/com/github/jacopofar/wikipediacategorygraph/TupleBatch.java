@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.util.Arrays;
+
+/**
+ * A copy of the tuples parsed from a chunk of a dump, with the statement boundaries,
+ * so they can be parsed by one thread and passed to the TupleHandler by another
+ */
+class TupleBatch {
+    private byte[] data = new byte[1 << 16];
+    private int dataLength = 0;
+    private int[] fieldEnd = new int[1 << 12];
+    private long[] number = new long[1 << 12];
+    private byte[] kind = new byte[1 << 12];
+    private int fields = 0;
+    private int[] tupleEnd = new int[1 << 10];
+    private int tuples = 0;
+    private int[] statementEnd = new int[16];
+    private long[] statementOffset = new long[16];
+    private int statements = 0;
+
+    void add(SqlTuple tuple){
+        if(fields + tuple.size() > kind.length){
+            int n = Math.max(kind.length * 2, fields + tuple.size());
+            fieldEnd = Arrays.copyOf(fieldEnd, n);
+            number = Arrays.copyOf(number, n);
+            kind = Arrays.copyOf(kind, n);
+        }
+        for(int f = 0; f < tuple.size(); f++){
+            int length = tuple.length(f);
+            if(dataLength + length > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+            System.arraycopy(tuple.array(), tuple.start(f), data, dataLength, length);
+            dataLength += length;
+            fieldEnd[fields] = dataLength;
+            kind[fields] = tuple.kind(f);
+            number[fields] = tuple.isNumber(f) ? tuple.getLong(f) : 0;
+            fields++;
+        }
+        if(tuples == tupleEnd.length)
+            tupleEnd = Arrays.copyOf(tupleEnd, tuples * 2);
+        tupleEnd[tuples++] = fields;
+    }
+
+    /**
+     * Mark the end of an INSERT statement after the tuples added so far
+     */
+    void endStatement(long offset){
+        if(statements == statementEnd.length){
+            statementEnd = Arrays.copyOf(statementEnd, statements * 2);
+            statementOffset = Arrays.copyOf(statementOffset, statements * 2);
+        }
+        statementEnd[statements] = tuples;
+        statementOffset[statements++] = offset;
+    }
+
+    int tupleCount(){
+        return tuples;
+    }
+
+    /**
+     * Pass the tuples and the statement ends to the handler, in the original order, through the given reused tuple
+     */
+    void replay(SqlTuple tuple, SqlValuesTokenizer.TupleHandler handler){
+        int field = 0;
+        int statement = 0;
+        for(int t = 0; t < tuples; t++){
+            while(statement < statements && statementEnd[statement] == t)
+                handler.statementEnd(statementOffset[statement++]);
+            tuple.clear();
+            for(; field < tupleEnd[t]; field++){
+                int start = field == 0 ? 0 : fieldEnd[field - 1];
+                tuple.beginField(kind[field]);
+                tuple.append(data, start, fieldEnd[field] - start);
+                if(kind[field] == SqlTuple.NUMBER)
+                    tuple.setNumber(number[field]);
+            }
+            handler.tuple(tuple);
+        }
+        while(statement < statements)
+            handler.statementEnd(statementOffset[statement++]);
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.articleLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.categoryLbl;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.inCategoryRel;
+import static com.github.jacopofar.wikipediacategorygraph.CreateCategoryGraph.subCategoryOfRel;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Updates a graph loaded by CreateCategoryGraph with newer dumps, writing only the differences.
+ *
+ * Usage: category.sql categorylinks.sql graphfolder [--parsers=n] [--batch=n] [--sources="Cat1|Cat2|..."] [--dry-run]
+ *
+ * The categories and the edges in the store are compared with the ones in the dumps, filtered as in a full load.
+ * Edges are identified by the page ID of the sub-category or article and the page ID of the container.
+ * Removed edges and categories are deleted, renamed categories and articles get the new name, new categories,
+ * articles and edges are created, and the articles left without categories are deleted. The changes are committed every
+ * batch operations (10000 by default), --dry-run only prints them.
+ *
+ * Then the distances already in the store are repaired with DistanceRepair, starting from the changed
+ * SUBCATEGORY_OF edges, and only the changed ones are written. Packed distances are found through the
+ * DistanceSources node, distance_ properties need the macro-categories in --sources.
+ * Distances stored by the nearest engine with a k or a maximum distance are incomplete, so they are not repaired
+ * and must be computed again.
+ *
+ * Only the store is updated: snapshots, distance tables and their .index files derived from the graph become stale.
+ * The ones recorded by the last CalculateCategoryDistances run are listed at the end, and they have to be exported
+ * or computed again.
+ */
+public class UpdateCategoryGraph {
+    private final GraphDatabaseService graphDb;
+    private final int parsers;
+
+    //the store before the update, by page ID
+    private final IntLongHashMap categoryNodes = new IntLongHashMap(1 << 16);
+    private final IntLongHashMap articleNodes = new IntLongHashMap(1 << 18);
+    private final NameDictionary categoryIDs = new NameDictionary(1 << 16);
+    private final NameDictionary articleIDs = new NameDictionary(1 << 18);
+    private final LongList articleEdges = new LongList();
+    private final LongList subcategoryEdges = new LongList();
+
+    //the dumps
+    private final NameDictionary newCategoryIDs = new NameDictionary(1 << 16);
+    private final IntLongHashMap newCategories = new IntLongHashMap(1 << 16);
+    private final Map<Integer,String> changedNames = new HashMap<>();
+    //the articles, new or renamed, by the name of their first edge as in a full load
+    private final IntLongHashMap dumpArticles = new IntLongHashMap(1 << 18);
+    private final Map<Integer,String> changedArticleNames = new HashMap<>();
+    private final LongList newArticleEdges = new LongList();
+    private final LongList newSubcategoryEdges = new LongList();
+
+    //the SUBCATEGORY_OF edges changed, as node IDs of the sub-category and of the container
+    private final LongList addedSubcategoryNodes = new LongList();
+    private final LongList removedSubcategoryNodes = new LongList();
+
+    public UpdateCategoryGraph(GraphDatabaseService graphDb, int parsers){
+        this.graphDb = graphDb;
+        this.parsers = parsers;
+    }
+
+    public static void main(String args[]) throws IOException{
+        CommandLine cl = new CommandLine(args);
+        if(cl.positional().size() != 3){
+            System.err.println("wrong usage, expecting: category.sql categorylinks.sql graphfolder [--parsers=n] [--batch=n] [--sources=\"Cat1|Cat2|...\"] [--dry-run]");
+            return;
+        }
+        Metrics.startLog(cl);
+        long startTime = System.currentTimeMillis();
+        GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(cl.positional(2));
+        try{
+            UpdateCategoryGraph update = new UpdateCategoryGraph(graphDb, cl.intOption("parsers", CreateCategoryGraph.defaultParsers()));
+            update.readStore();
+            update.readDumps(cl.positional(0), cl.positional(1));
+            if(cl.hasOption("dry-run")){
+                update.diff();
+                return;
+            }
+            int batchSize = cl.intOption("batch", 10000);
+            update.apply(batchSize);
+            String sources = cl.option("sources", null);
+            update.repairDistances(sources == null ? null : sources.split("\\|"), batchSize);
+            update.warnStaleFiles();
+        }
+        finally{
+            graphDb.shutdown();
+            Metrics.global().stopLog();
+        }
+        System.out.println("Graph updated in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+    }
+
+    private static long edgeKey(int from, int container){
+        return ((long) from << 32) | (container & 0xffffffffL);
+    }
+
+    private static int nodeKey(long nodeId){
+        if(nodeId > Integer.MAX_VALUE)
+            throw new IllegalStateException("node ID too big: " + nodeId);
+        return (int) nodeId;
+    }
+
+    /**
+     * Read the categories, articles and edges in the store
+     */
+    void readStore(){
+        Metrics.global().setPhase("update read store");
+        long startTime = System.currentTimeMillis();
+        IntLongHashMap pageIDs = new IntLongHashMap(1 << 18);
+        try(Transaction tx = graphDb.beginTx()){
+            GlobalGraphOperations all = GlobalGraphOperations.at(graphDb);
+            for(Node n:all.getAllNodesWithLabel(categoryLbl)){
+                int ID = (int) n.getProperty("ID");
+                categoryNodes.put(ID, n.getId());
+                categoryIDs.put((String) n.getProperty("name"), ID);
+                pageIDs.put(nodeKey(n.getId()), ID);
+            }
+            for(Node n:all.getAllNodesWithLabel(articleLbl)){
+                int ID = (int) n.getProperty("ID");
+                articleNodes.put(ID, n.getId());
+                articleIDs.put((String) n.getProperty("name"), ID);
+                pageIDs.put(nodeKey(n.getId()), ID);
+            }
+            for(Relationship r:all.getAllRelationships()){
+                long from = pageIDs.get(nodeKey(r.getStartNode().getId()));
+                long container = pageIDs.get(nodeKey(r.getEndNode().getId()));
+                if(from == IntLongHashMap.MISSING || container == IntLongHashMap.MISSING)
+                    continue;
+                if(r.isType(inCategoryRel))
+                    articleEdges.add(edgeKey((int) from, (int) container));
+                else if(r.isType(subCategoryOfRel))
+                    subcategoryEdges.add(edgeKey((int) from, (int) container));
+            }
+            tx.success();
+        }
+        articleEdges.sortUnique();
+        subcategoryEdges.sortUnique();
+        System.out.println("Store read in " + (System.currentTimeMillis() - startTime) / 1000 + "s: " + categoryNodes.size() + " categories, "
+                + articleNodes.size() + " articles, " + articleEdges.size() + " article edges and " + subcategoryEdges.size() + " subcategory edges");
+    }
+
+    private void parse(String file, Predicate<SqlTuple> filter, SqlValuesTokenizer.TupleHandler handler) throws IOException{
+        try{
+            if(parsers > 0)
+                new DumpPipeline(parsers).run(file, filter, handler);
+            else
+                SqlValuesTokenizer.parse(file, tuple -> {
+                    if(filter.test(tuple))
+                        handler.tuple(tuple);
+                });
+        }
+        catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read the categories and the edges of the new dumps, with the same filters of CategoryGraphLoader
+     */
+    void readDumps(String categoryFile, String categoryLinksFile) throws IOException{
+        Metrics.global().setPhase("update read dumps");
+        long startTime = System.currentTimeMillis();
+        parse(categoryFile, category -> !CreateCategoryGraph.isInternalCategory(category, 1), category -> {
+            int ID = category.getInt(0);
+            newCategoryIDs.put(category.array(), category.start(1), category.length(1), ID);
+            newCategories.put(ID, 0);
+            String name = category.getString(1);
+            if(categoryIDs.get(name) != ID)
+                changedNames.put(ID, name);
+        });
+        parse(categoryLinksFile, edge -> !edge.fieldEquals(edge.size() - 1, CreateCategoryGraph.FILE), edge -> {
+            long container = newCategoryIDs.get(edge.array(), edge.start(1), edge.length(1));
+            if(container == NameDictionary.MISSING)
+                return;
+            int ID = edge.getInt(0);
+            int type = edge.size() - 1;
+            if(edge.fieldEquals(type, CreateCategoryGraph.PAGE)){
+                newArticleEdges.add(edgeKey(ID, (int) container));
+                if(!dumpArticles.containsKey(ID)){
+                    dumpArticles.put(ID, 0);
+                    String name = edge.getString(2);
+                    if(articleIDs.get(name) != ID)
+                        changedArticleNames.put(ID, name);
+                }
+            }
+            else if(edge.fieldEquals(type, CreateCategoryGraph.SUBCAT) && newCategories.containsKey(ID))
+                newSubcategoryEdges.add(edgeKey(ID, (int) container));
+        });
+        newArticleEdges.sortUnique();
+        newSubcategoryEdges.sortUnique();
+        System.out.println("Dumps read in " + (System.currentTimeMillis() - startTime) / 1000 + "s: " + newCategories.size() + " categories, "
+                + newArticleEdges.size() + " article edges and " + newSubcategoryEdges.size() + " subcategory edges");
+    }
+
+    /**
+     * Print the number of changes
+     */
+    void diff(){
+        LongList removedCategories = removedCategories();
+        int renamed = 0;
+        for(int ID:changedNames.keySet())
+            if(categoryNodes.containsKey(ID))
+                renamed++;
+        System.out.println((changedNames.size() - renamed) + " categories added, " + removedCategories.size() + " removed and " + renamed + " renamed");
+        int renamedArticles = 0;
+        for(int ID:changedArticleNames.keySet())
+            if(articleNodes.containsKey(ID))
+                renamedArticles++;
+        //articles sharing a name are counted as renamed, apply() writes only the names that differ
+        System.out.println((changedArticleNames.size() - renamedArticles) + " articles added and " + renamedArticles + " renamed");
+        System.out.println(LongList.difference(newArticleEdges, articleEdges).size() + " article edges added, "
+                + LongList.difference(articleEdges, newArticleEdges).size() + " removed");
+        System.out.println(LongList.difference(newSubcategoryEdges, subcategoryEdges).size() + " subcategory edges added, "
+                + LongList.difference(subcategoryEdges, newSubcategoryEdges).size() + " removed");
+    }
+
+    private LongList removedCategories(){
+        LongList removed = new LongList();
+        categoryNodes.forEach((ID, node) -> {
+            if(!newCategories.containsKey(ID))
+                removed.add(ID);
+        });
+        return removed;
+    }
+
+    /**
+     * Write the differences in the store, committing every batch operations
+     */
+    void apply(int batchSize){
+        Metrics.global().setPhase("update apply");
+        long startTime = System.currentTimeMillis();
+        diff();
+        LongList removedArticleEdges = LongList.difference(articleEdges, newArticleEdges);
+        LongList removedSubcategoryEdges = LongList.difference(subcategoryEdges, newSubcategoryEdges);
+        LongList addedArticleEdges = LongList.difference(newArticleEdges, articleEdges);
+        LongList addedSubcategoryEdges = LongList.difference(newSubcategoryEdges, subcategoryEdges);
+        LongList touchedArticles = new LongList();
+        try(TransactionalGraphWriter writer = new TransactionalGraphWriter(graphDb)){
+            Batches batches = new Batches(writer, batchSize);
+            for(int i = 0; i < removedArticleEdges.size(); i++){
+                long e = removedArticleEdges.get(i);
+                long article = articleNodes.get((int) (e >>> 32));
+                deleteRelationships(article, categoryNodes.get((int) e), inCategoryRel);
+                touchedArticles.add(article);
+                batches.done();
+            }
+            for(int i = 0; i < removedSubcategoryEdges.size(); i++){
+                long e = removedSubcategoryEdges.get(i);
+                long sub = categoryNodes.get((int) (e >>> 32));
+                long container = categoryNodes.get((int) e);
+                deleteRelationships(sub, container, subCategoryOfRel);
+                //the node IDs of removed categories can be reused by the new ones, so they are marked here
+                removedSubcategoryNodes.add(newCategories.containsKey((int) (e >>> 32)) ? sub : -1);
+                removedSubcategoryNodes.add(newCategories.containsKey((int) e) ? container : -1);
+                batches.done();
+            }
+            LongList removedCategories = removedCategories();
+            for(int i = 0; i < removedCategories.size(); i++){
+                Node n = graphDb.getNodeById(categoryNodes.get((int) removedCategories.get(i)));
+                //the edges of the category are all among the removed ones, unless the store has edges skipped by the load
+                for(Relationship r:n.getRelationships())
+                    r.delete();
+                n.delete();
+                batches.done();
+            }
+            for(Map.Entry<Integer,String> e:changedNames.entrySet()){
+                long node = categoryNodes.get(e.getKey());
+                if(node == IntLongHashMap.MISSING)
+                    categoryNodes.put(e.getKey(), writer.createNode(categoryLbl, e.getKey(), e.getValue()));
+                else
+                    graphDb.getNodeById(node).setProperty("name", e.getValue());
+                batches.done();
+            }
+            for(Map.Entry<Integer,String> e:changedArticleNames.entrySet()){
+                long node = articleNodes.get(e.getKey());
+                //new articles are created with their first edge
+                if(node == IntLongHashMap.MISSING)
+                    continue;
+                Node n = graphDb.getNodeById(node);
+                if(!e.getValue().equals(n.getProperty("name"))){
+                    n.setProperty("name", e.getValue());
+                    batches.done();
+                }
+            }
+            for(int i = 0; i < addedArticleEdges.size(); i++){
+                long e = addedArticleEdges.get(i);
+                int ID = (int) (e >>> 32);
+                long article = articleNodes.get(ID);
+                if(article == IntLongHashMap.MISSING){
+                    article = writer.createNode(articleLbl, ID, changedArticleNames.get(ID));
+                    articleNodes.put(ID, article);
+                }
+                writer.createRelationship(article, categoryNodes.get((int) e), inCategoryRel);
+                batches.done();
+            }
+            for(int i = 0; i < addedSubcategoryEdges.size(); i++){
+                long e = addedSubcategoryEdges.get(i);
+                long sub = categoryNodes.get((int) (e >>> 32));
+                long container = categoryNodes.get((int) e);
+                writer.createRelationship(sub, container, subCategoryOfRel);
+                addedSubcategoryNodes.add(sub);
+                addedSubcategoryNodes.add(container);
+                batches.done();
+            }
+            //articles are deleted at the end, since new edges may have been added to them
+            int orphans = 0;
+            touchedArticles.sortUnique();
+            for(int i = 0; i < touchedArticles.size(); i++){
+                Node n = graphDb.getNodeById(touchedArticles.get(i));
+                if(!n.hasRelationship()){
+                    n.delete();
+                    orphans++;
+                    batches.done();
+                }
+            }
+            writer.commit();
+            System.out.println(orphans + " articles without categories deleted");
+        }
+        System.out.println("Changes written in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+    }
+
+    private void deleteRelationships(long from, long to, RelationshipType type){
+        for(Relationship r:graphDb.getNodeById(from).getRelationships(Direction.OUTGOING, type))
+            if(r.getEndNode().getId() == to)
+                r.delete();
+    }
+
+    /**
+     * Repair the distances in the store after the changes, the sources are needed only for the distance_ properties
+     */
+    void repairDistances(String[] sources, int batchSize){
+        Metrics.global().setPhase("update repair");
+        long startTime = System.currentTimeMillis();
+        boolean packed = false;
+        boolean complete = true;
+        try(Transaction tx = graphDb.beginTx()){
+            for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(CalculateCategoryDistances.distanceSourcesLbl)){
+                sources = (String[]) n.getProperty("sources");
+                packed = true;
+            }
+            for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(CalculateCategoryDistances.distanceRunLbl))
+                complete = (boolean) n.getProperty("complete", true);
+            tx.success();
+        }
+        if(!complete){
+            System.err.println("The distances in the store were computed by the nearest engine with a k or a maximum distance and can't be repaired, compute them again with CalculateCategoryDistances");
+            return;
+        }
+        if(sources == null){
+            System.out.println("No packed distances in the store and no --sources given, the distances are not updated");
+            return;
+        }
+        Neo4jCategoryAdjacency stored;
+        InMemoryCategoryAdjacency graph;
+        int[][] distances = new int[sources.length][];
+        int[] sourceNodes = new int[sources.length];
+        try(Transaction tx = graphDb.beginTx()){
+            stored = new Neo4jCategoryAdjacency(graphDb);
+            graph = InMemoryCategoryAdjacency.copyOf(stored);
+            for(int s = 0; s < sources.length; s++){
+                sourceNodes[s] = stored.indexOf(sources[s]);
+                distances[s] = new int[graph.nodeCount()];
+            }
+            for(int i = 0; i < graph.nodeCount(); i++){
+                Node n = graphDb.getNodeById(stored.nodeId(i));
+                int[] p = packed ? (int[]) n.getProperty("distances", null) : null;
+                for(int s = 0; s < sources.length; s++){
+                    int d;
+                    if(packed)
+                        d = p == null || p[s] == DistanceTable.UNREACHABLE ? DialShortestPaths.UNREACHABLE : p[s];
+                    else
+                        d = (int) n.getProperty("distance_" + sources[s], DialShortestPaths.UNREACHABLE);
+                    distances[s][i] = d;
+                }
+            }
+            tx.success();
+        }
+        DistanceRepair repair = new DistanceRepair(graph, endpoints(stored, addedSubcategoryNodes, 0), endpoints(stored, addedSubcategoryNodes, 1),
+                endpoints(stored, removedSubcategoryNodes, 0), endpoints(stored, removedSubcategoryNodes, 1));
+        boolean[] changed = new boolean[graph.nodeCount()];
+        for(int s = 0; s < sources.length; s++){
+            int[] old = distances[s].clone();
+            long repairTime = System.currentTimeMillis();
+            repair.repair(distances[s], sourceNodes[s]);
+            for(int i = 0; i < changed.length; i++)
+                changed[i] |= old[i] != distances[s][i];
+            System.out.println("Distances from " + sources[s] + " repaired in " + (System.currentTimeMillis() - repairTime) + "ms, "
+                    + repair.getAffectedCount() + " categories affected by the removals and " + repair.getChangedCount() + " distances changed");
+        }
+        long written = 0;
+        try(TransactionalGraphWriter writer = new TransactionalGraphWriter(graphDb)){
+            Batches batches = new Batches(writer, batchSize);
+            for(int i = 0; i < changed.length; i++){
+                if(!changed[i])
+                    continue;
+                Node n = graphDb.getNodeById(stored.nodeId(i));
+                if(packed){
+                    int[] p = new int[sources.length];
+                    for(int s = 0; s < sources.length; s++)
+                        p[s] = distances[s][i] == DialShortestPaths.UNREACHABLE ? DistanceTable.UNREACHABLE : distances[s][i];
+                    n.setProperty("distances", p);
+                }
+                else{
+                    for(int s = 0; s < sources.length; s++){
+                        if(distances[s][i] == DialShortestPaths.UNREACHABLE)
+                            n.removeProperty("distance_" + sources[s]);
+                        else
+                            n.setProperty("distance_" + sources[s], distances[s][i]);
+                    }
+                }
+                written++;
+                batches.done();
+            }
+            writer.commit();
+        }
+        System.out.println("Distances of " + written + " categories updated in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+    }
+
+    /**
+     * Warn that the files derived from the graph are not updated, listing the ones recorded by the last distance run
+     */
+    void warnStaleFiles(){
+        String[] files = new String[0];
+        try(Transaction tx = graphDb.beginTx()){
+            for(Node n:GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(CalculateCategoryDistances.distanceRunLbl))
+                files = (String[]) n.getProperty("files", files);
+            tx.success();
+        }
+        System.err.println("Warning: snapshots and distance tables exported from this graph are not updated, export or compute them again");
+        for(String f:files){
+            for(File stale:new File[]{new File(f), new File(f + ".index")})
+                if(stale.exists())
+                    System.err.println(" - " + stale + " is stale");
+        }
+    }
+
+    /**
+     * The numbers in the graph of one endpoint of each edge, -1 for the removed categories
+     */
+    private static int[] endpoints(Neo4jCategoryAdjacency graph, LongList nodePairs, int end){
+        int[] e = new int[nodePairs.size() / 2];
+        for(int i = 0; i < e.length; i++)
+            e[i] = nodePairs.get(2 * i + end) < 0 ? -1 : graph.indexOfNode(nodePairs.get(2 * i + end));
+        return e;
+    }
+
+    /**
+     * Commits the writer every batch operations
+     */
+    private static class Batches {
+        private final GraphWriter writer;
+        private final int size;
+        private int pending = 0;
+        private long total = 0;
+
+        Batches(GraphWriter writer, int size){
+            this.writer = writer;
+            this.size = size;
+        }
+
+        void done(){
+            total++;
+            if(++pending < size)
+                return;
+            writer.commit();
+            pending = 0;
+            if(total % (size * 10L) == 0)
+                System.out.println(" - " + total + " changes written");
+        }
+    }
+
+    /**
+     * Growable array of longs, sorted to compare the edge sets
+     */
+    static class LongList {
+        private long[] items = new long[1024];
+        private int size = 0;
+
+        void add(long v){
+            if(size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+
+        long get(int i){
+            return items[i];
+        }
+
+        int size(){
+            return size;
+        }
+
+        /**
+         * Sort the values and remove the duplicates
+         */
+        void sortUnique(){
+            Arrays.sort(items, 0, size);
+            int unique = 0;
+            for(int i = 0; i < size; i++)
+                if(unique == 0 || items[i] != items[unique - 1])
+                    items[unique++] = items[i];
+            size = unique;
+        }
+
+        /**
+         * @return the values of a not in b, both sorted
+         */
+        static LongList difference(LongList a, LongList b){
+            LongList d = new LongList();
+            int j = 0;
+            for(int i = 0; i < a.size; i++){
+                while(j < b.size && b.items[j] < a.items[i])
+                    j++;
+                if(j == b.size || b.items[j] != a.items[i])
+                    d.add(a.items[i]);
+            }
+            return d;
+        }
+    }
+}
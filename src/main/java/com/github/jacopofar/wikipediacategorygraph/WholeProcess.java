@@ -1,41 +1,67 @@
-/* 
- * Copyright 2014 Jacopo farina.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.github.jacopofar.wikipediacategorygraph;
-
-import java.io.IOException;
-
-/**
- * Run the three steps of the process:
- * 1. load the category nodes (ID and name) from the category.sql file
- * 2. load edge data from categorylinks.sql and create article nodes
- * 3. calculate category distances from the given set of starting categories
- * 
- * The process is described in the paper "Automatically assigning Wikipedia articles to macro-categories"
- */
-public class WholeProcess {
-    public static void main(String argc[]) throws IOException{
-        String categoryFile="category.sql";
-        String categoryLinksFile="categorylinks.sql";
-        String dbFolder="categorygraph";
-        if(argc.length==3){
-            categoryFile=argc[0];
-            categoryLinksFile=argc[1];
-            dbFolder=argc[2];
-        }
-        CreateCategoryGraph.main(new String[]{categoryFile,categoryLinksFile,dbFolder});
-        CalculateCategoryDistances.main(new String[]{dbFolder,"History|Geography|People"});
-    }
-}
+/* 
+ * Copyright 2014 Jacopo farina.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jacopofar.wikipediacategorygraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Run the four steps of the process:
+ * 1. load the category nodes (ID and name) from the category.sql file
+ * 2. load edge data from categorylinks.sql and create article nodes
+ * 3. calculate category distances from the given set of starting categories
+ * 4. assign each article to the nearest starting category, writing assignments.csv
+ * 
+ * Passing --offline-import the first two steps are done with a batch inserter, see OfflineImport,
+ * --parsers=n sets the threads parsing the dumps, which can be gzip compressed,
+ * --link-writers=n the threads creating the relationships, in transactions of --link-batch=n, see ParallelLinkWriter,
+ * --metrics-log=file and --metrics-interval=seconds are passed to the load and distance steps
+ * 
+ * The process is described in the paper "Automatically assigning Wikipedia articles to macro-categories"
+ */
+public class WholeProcess {
+    public static void main(String argc[]) throws IOException{
+        String categoryFile="category.sql";
+        String categoryLinksFile="categorylinks.sql";
+        String dbFolder="categorygraph";
+        CommandLine cl=new CommandLine(argc);
+        if(cl.positional().size()==3){
+            categoryFile=cl.positional(0);
+            categoryLinksFile=cl.positional(1);
+            dbFolder=cl.positional(2);
+        }
+        String parsers="--parsers="+cl.intOption("parsers", CreateCategoryGraph.defaultParsers());
+        ArrayList<String> metricsOptions=new ArrayList<>();
+        if(cl.hasOption("metrics-log")){
+            metricsOptions.add("--metrics-log="+cl.option("metrics-log", null));
+            metricsOptions.add("--metrics-interval="+cl.intOption("metrics-interval", 10));
+        }
+        ArrayList<String> load=new ArrayList<>(Arrays.asList(categoryFile,categoryLinksFile,dbFolder,parsers));
+        if(cl.hasOption("offline-import"))
+            load.add("--offline-import");
+        if(cl.hasOption("link-writers"))
+            load.add("--link-writers="+cl.intOption("link-writers", 0));
+        if(cl.hasOption("link-batch"))
+            load.add("--link-batch="+cl.intOption("link-batch", 100000));
+        load.addAll(metricsOptions);
+        CreateCategoryGraph.main(load.toArray(new String[0]));
+        ArrayList<String> distances=new ArrayList<>(Arrays.asList(dbFolder,"History|Geography|People"));
+        distances.addAll(metricsOptions);
+        CalculateCategoryDistances.main(distances.toArray(new String[0]));
+        AssignArticles.main(new String[]{"assignments.csv","--db="+dbFolder,"--sources=History|Geography|People"});
+    }
+}